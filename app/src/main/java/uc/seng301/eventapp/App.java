@@ -27,9 +27,14 @@
 
 package uc.seng301.eventapp;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.sql.Array;
 import java.util.*;
+import java.util.stream.Stream;
 
+import javax.persistence.DiscriminatorValue;
 import javax.persistence.EntityManager;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
@@ -41,17 +46,28 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.query.Query;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
 import uc.seng301.eventapp.accessor.*;
 import uc.seng301.eventapp.handler.EventHandler;
 import uc.seng301.eventapp.handler.EventHandlerImpl;
+import uc.seng301.eventapp.handler.StatusTransitionReport;
+import uc.seng301.eventapp.location.CachingLocationService;
+import uc.seng301.eventapp.location.GazetteerLocationService;
 import uc.seng301.eventapp.location.LocationService;
+import uc.seng301.eventapp.location.LocationServiceException;
 import uc.seng301.eventapp.location.LocationServiceResult;
 import uc.seng301.eventapp.location.NominatimQuery;
+import uc.seng301.eventapp.location.PersistentLocationService;
+import uc.seng301.eventapp.location.ResilientLocationService;
 import uc.seng301.eventapp.model.Event;
 import uc.seng301.eventapp.model.EventStatus;
 import uc.seng301.eventapp.model.Location;
 import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.notification.NotificationCoalescer;
+import uc.seng301.eventapp.notification.NotificationDispatcher;
+import uc.seng301.eventapp.notification.OutboxRelay;
 import uc.seng301.eventapp.util.DateUtil;
 
 /**
@@ -62,11 +78,15 @@ import uc.seng301.eventapp.util.DateUtil;
 public class App {
 
   private final SessionFactory sessionFactory;
+  private final ResilientLocationService locationApi;
+  private final PersistentLocationService locationStore;
+  private final CachingLocationService locationCache;
   private final LocationService locationService;
 
   private final EventHandler eventHandler;
   private final EventAccessor eventAccessor;
   private final ParticipantAccessor participantAccessor;
+  private final OutboxRelay outboxRelay;
 
   private final Scanner cli;
 
@@ -79,14 +99,77 @@ public class App {
     // this will load the config file (xml file in resources folder)
     Configuration configuration = new Configuration();
     configuration.configure();
+    // hibernate settings may be overridden at startup, e.g. the connection pool
+    // size with -Dhibernate.hikari.maximumPoolSize=16
+    System.getProperties().stringPropertyNames().stream().filter(name -> name.startsWith("hibernate."))
+        .forEach(name -> configuration.setProperty(name, System.getProperty(name)));
     sessionFactory = configuration.buildSessionFactory();
 
     participantAccessor = new ParticipantAccessor(sessionFactory);
     eventAccessor = new EventAccessor(sessionFactory, participantAccessor);
-    eventHandler = new EventHandlerImpl(eventAccessor);
+    eventHandler = new EventHandlerImpl(eventAccessor, participantAccessor);
+
+    // notifications go through a transactional outbox when started with
+    // -Deventapp.outbox=true (poll interval and batch size are configurable too)
+    if (Boolean.getBoolean("eventapp.outbox")) {
+      NotificationDispatcher.getInstance().setOutboxEnabled(true);
+      outboxRelay = new OutboxRelay(new OutboxAccessor(sessionFactory), eventAccessor,
+          Long.getLong("eventapp.outbox.pollIntervalMillis", 1000L),
+          Integer.getInteger("eventapp.outbox.batchSize", 100));
+      outboxRelay.start();
+    } else {
+      outboxRelay = null;
+    }
+    // status changes are delivered as per-participant digests when started with
+    // -Deventapp.notification.digestWindowMillis=<window> (and digestMaxChanges)
+    Long digestWindowMillis = Long.getLong("eventapp.notification.digestWindowMillis");
+    if (null != digestWindowMillis) {
+      NotificationDispatcher.getInstance().enableCoalescing(digestWindowMillis,
+          Integer.getInteger("eventapp.notification.digestMaxChanges", 1000));
+    }
 
     cli = new Scanner(System.in);
-    locationService = new NominatimQuery();
+    // cities are looked up in a local gazetteer rather than with the external API
+    // when started with -Deventapp.gazetteer=<path to csv file>
+    LocationService gazetteerLocationService = createGazetteerLocationService(
+        System.getProperty("eventapp.gazetteer"));
+    if (null == gazetteerLocationService) {
+      // same cities are typed over and over again, so don't query the API each time,
+      // nor after a restart (results are also kept in a file that is not recreated)
+      // and never wait for an unresponsive API (calls are bounded, retried and
+      // short-circuited while the API keeps failing)
+      locationApi = new ResilientLocationService(new NominatimQuery());
+      locationStore = new PersistentLocationService(locationApi,
+          System.getProperty("eventapp.geocodeCache", "geocode-cache.sqlite"));
+      locationCache = new CachingLocationService(locationStore);
+      locationService = locationCache;
+    } else {
+      locationApi = null;
+      locationStore = null;
+      locationCache = null;
+      locationService = gazetteerLocationService;
+    }
+  }
+
+  /**
+   * Create the offline location service for given gazetteer, if any
+   *
+   * @param gazetteer the path to a gazetteer file (see
+   *                  {@link GazetteerLocationService}), may be null
+   * @return the gazetteer location service, null if no gazetteer is given or it
+   *         cannot be read
+   */
+  private static LocationService createGazetteerLocationService(String gazetteer) {
+    if (null == gazetteer) {
+      return null;
+    }
+    try {
+      return new GazetteerLocationService(Path.of(gazetteer),
+          Integer.getInteger("eventapp.gazetteer.maxEditDistance", 1));
+    } catch (IOException e) {
+      LOGGER.error("unable to read gazetteer {}, falling back to external location API", gazetteer, e);
+      return null;
+    }
   }
 
   /**
@@ -137,12 +220,26 @@ public class App {
         updateCalendar();
         break;
 
+      case 8:
+        System.out.println(cacheStatistics());
+        break;
+
       case 9:
-        System.out.println(serializeDatabaseContent(sessionFactory));
+        serializeDatabaseContent(sessionFactory, System.out);
         break;
 
       case 0:
         quit = true;
+        // let pending notifications be printed before leaving
+        if (null != outboxRelay) {
+          outboxRelay.stop();
+        }
+        // hand the last window over, later changes are delivered right away
+        NotificationDispatcher.getInstance().disableCoalescing();
+        NotificationDispatcher.getInstance().flush();
+        if (null != locationStore) {
+          locationStore.close();
+        }
         System.out.println("See you later!");
         break;
 
@@ -164,6 +261,7 @@ public class App {
     + "\t 1. Add an event\n"
     + "\t 2. Add a participant to an event\n"
     + "\t 3. Update the status of an event\n"
+    + "\t 8. Print cache and notification statistics\n"
     + "\t 9. Print database content\n"
     + "\t 0. Exit\n"
     + "\n"
@@ -204,7 +302,13 @@ public class App {
           + "? \nType 'yes' to call service, anything else to ignore");
       String response = cli.nextLine();
       if ("yes".equals(response)) {
-        LocationServiceResult locationResult = locationService.getCityFromString(locationString);
+        LocationServiceResult locationResult = null;
+        try {
+          locationResult = locationService.getCityFromString(locationString);
+        } catch (LocationServiceException e) {
+          LOGGER.warn("unable to look location '{}' up", locationString, e);
+          System.out.println("The location service is unavailable, the location is kept as typed.");
+        }
         if (null != locationResult) {
           location = new Location(locationResult.getName(), locationResult.getLatitude(),
               locationResult.getLongitude());
@@ -397,20 +501,73 @@ public class App {
     boolean updated = DateUtil.getInstance().changeCurrentDate(cli.nextLine());
     System.out.println("The date has been updated " + (updated ? "successfully." : "unsuccessfully."));
     if (updated) {
-      eventHandler.refreshEvents();
+      StatusTransitionReport report = eventHandler.refreshEvents();
+      System.out.println(report.getTransitionedEvents() + " event(s) moved to " + report.getNewStatus() + " in "
+          + report.getDurationMillis() + " ms.");
+    }
+  }
+
+  /**
+   * Compile hit/miss statistics of the second-level cache regions, the query
+   * cache, the in-memory caches of the event accessor and the location cache, as
+   * well as the state of the location API circuit breaker and the notification
+   * digest statistics (if enabled) into a user-friendly String.
+   *
+   * @return a summary of the cache and notification statistics
+   */
+  private String cacheStatistics() {
+    Statistics statistics = sessionFactory.getStatistics();
+    StringBuilder result = new StringBuilder("Second-level cache:\n");
+    for (String region : statistics.getSecondLevelCacheRegionNames()) {
+      CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+      if (null == regionStatistics) {
+        continue;
+      }
+      result.append("\t").append(region).append(": ").append(regionStatistics.getHitCount()).append(" hit(s), ")
+          .append(regionStatistics.getMissCount()).append(" miss(es), ").append(regionStatistics.getPutCount())
+          .append(" put(s), ").append(regionStatistics.getElementCountInMemory()).append(" element(s)\n");
     }
+    result.append("Query cache: ").append(statistics.getQueryCacheHitCount()).append(" hit(s), ")
+        .append(statistics.getQueryCacheMissCount()).append(" miss(es), ").append(statistics.getQueryCachePutCount())
+        .append(" put(s)\n");
+    result.append("Event type cache: ").append(eventAccessor.getEventTypeCacheHits()).append(" hit(s), ")
+        .append(eventAccessor.getEventTypeCacheMisses()).append(" miss(es)\n");
+    result.append("Scheduled events index: ").append(eventAccessor.getScheduledEventIndex()).append("\n");
+    result.append("Location index: ").append(eventAccessor.getLocationIndex()).append("\n");
+    if (null != locationCache) {
+      result.append("Location cache: ").append(locationCache.getHits()).append(" hit(s), ")
+          .append(locationCache.getMisses()).append(" miss(es), hit ratio ")
+          .append(String.format("%.2f", locationCache.getHitRatio())).append(", ")
+          .append(locationCache.getUpstreamCalls()).append(" API call(s) averaging ")
+          .append(String.format("%.1f", locationCache.getAverageUpstreamLatencyMillis())).append(" ms\n");
+      result.append("Location API circuit: ").append(locationApi.getCircuitState()).append(", opened ")
+          .append(locationApi.getTransitionsTo(ResilientLocationService.CircuitState.OPEN)).append(" time(s), ")
+          .append(locationApi.getFailures()).append(" failure(s) (").append(locationApi.getTimeouts())
+          .append(" timeout(s)), ").append(locationApi.getRetries()).append(" retry(ies), ")
+          .append(locationApi.getRejections()).append(" call(s) short-circuited");
+    } else {
+      result.append("Location cache: none (offline gazetteer)");
+    }
+    NotificationCoalescer coalescer = NotificationDispatcher.getInstance().getCoalescer();
+    if (null != coalescer) {
+      result.append("\nNotification digests: ").append(coalescer.getDeliveredChanges()).append(" change(s) in ")
+          .append(coalescer.getDeliveredDigests()).append(" digest(s), compression ratio ")
+          .append(String.format("%.2f", coalescer.getCompressionRatio())).append(", ")
+          .append(coalescer.getBufferedChanges()).append(" change(s) buffered");
+    }
+    return result.toString();
   }
 
   /**
-   * Compile the content of all entities stored in the database into user-friendly
-   * String.
+   * Print the content of all entities stored in the database in a user-friendly
+   * way into given output, one entity at a time.
    * 
    * Fully relies on all Entities' toString() method to be fully user-friendly.
    *
-   * @return a serialised version of the content of the database.
+   * @param sessionFactory the session factory to query the database with
+   * @param out            the output to print the content of the database into
    */
-  private String serializeDatabaseContent(SessionFactory sessionFactory) {
-    StringBuilder result = new StringBuilder();
+  private void serializeDatabaseContent(SessionFactory sessionFactory, PrintStream out) {
     try (Session session = sessionFactory.openSession()) {
       LOGGER.info("querying all managed entities in database");
       EntityManager manager = sessionFactory.createEntityManager();
@@ -422,18 +579,26 @@ public class App {
         }
 
         String entityName = entityType.getName();
-        result.append("Content of ").append(entityName).append("\n");
+        out.println("Content of " + entityName);
+        DiscriminatorValue status = entityType.getJavaType().getAnnotation(DiscriminatorValue.class);
+        if (null != status) {
+          // events may be numerous, so they are streamed (one event subtype per status)
+          // and printed as they come
+          try (Stream<Event> events = eventAccessor.streamAllEventsWithStatus(EventStatus.valueOf(status.value()))) {
+            events.forEach(event -> out.println("\t" + event.toString()));
+          }
+          continue;
+        }
         Query<Object> query = session.createQuery("from " + entityName, Object.class);
         LOGGER.info("executing HQL query '{}'", query.getQueryString());
         for (Object o : query.list()) {
-          result.append("\t").append(o.toString()).append("\n");
+          out.println("\t" + o.toString());
         }
       }
 
     } catch (HibernateException e) {
-      result.append("Couldn't query content because of error").append(e.getLocalizedMessage());
+      out.println("Couldn't query content because of error" + e.getLocalizedMessage());
       LOGGER.error("unable to serialize db content. Reason:", e);
     }
-    return result.toString();
   }
 }
@@ -27,21 +27,53 @@
 
 package uc.seng301.eventapp.accessor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
 
+import uc.seng301.eventapp.model.ArchivedEvent;
+import uc.seng301.eventapp.model.CanceledEvent;
 import uc.seng301.eventapp.model.Event;
 import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.model.EventSummary;
 import uc.seng301.eventapp.model.EventType;
+import uc.seng301.eventapp.model.Location;
 import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.model.PastEvent;
+import uc.seng301.eventapp.model.ScheduledEvent;
+import uc.seng301.eventapp.notification.NotificationDispatcher;
 
 /**
  * This class offers helper methods to search for, retrieve or persit
@@ -49,8 +81,39 @@ import uc.seng301.eventapp.model.Participant;
  */
 public class EventAccessor {
 
+  /**
+   * Maximum number of rows touched by a single bulk update statement (keeps the
+   * number of bound parameters under SQLite's limit)
+   */
+  public static final int STATUS_UPDATE_BATCH_SIZE = 500;
+
+  /**
+   * Number of rows fetched from the database at once when streaming events (the
+   * session is also cleared every such number of rows)
+   */
+  public static final int STREAM_FETCH_SIZE = 500;
+
+  /**
+   * Query cache region for the lists of events retrieved by status
+   */
+  private static final String EVENTS_WITH_STATUS_REGION = "query.eventsWithStatus";
+
+  /**
+   * Maximum number of attempts to load an in-memory index when it keeps being
+   * invalidated while loading
+   */
+  private static final int INDEX_LOAD_ATTEMPTS = 3;
+
   private final SessionFactory sessionFactory;
   private final ParticipantAccessor participantAccessor;
+  private final ScheduledEventIndex scheduledEventIndex = new ScheduledEventIndex();
+  private final LocationIndex locationIndex = new LocationIndex();
+  private final ConcurrentMap<String, EventType> eventTypeCache = new ConcurrentHashMap<>();
+  private final LongAdder eventTypeCacheHits = new LongAdder();
+  private final LongAdder eventTypeCacheMisses = new LongAdder();
+  private final Object eventTypeCreationLock = new Object();
+  private final Object scheduledEventIndexLoadLock = new Object();
+  private final Object locationIndexLoadLock = new Object();
   private static final Logger LOGGER = LogManager.getLogger(EventAccessor.class);
 
   /**
@@ -80,7 +143,8 @@ public class EventAccessor {
     Event event = null;
     try (Session session = sessionFactory.openSession()) {
       LOGGER.info("retrieve the event with id {}", eventId);
-      event = session.createQuery("FROM Event WHERE eventId =" + eventId, Event.class).uniqueResult();
+      // served from the second-level cache when possible
+      event = session.get(Event.class, eventId);
     } catch (HibernateException e) {
       LOGGER.error("unable to retrieve event with id:{}", eventId, e);
     }
@@ -102,7 +166,8 @@ public class EventAccessor {
     Event event = null;
     try (Session session = sessionFactory.openSession()) {
       LOGGER.info("retrieve the event with id {} (with its participants)", eventId);
-      event = session.createQuery("FROM Event WHERE eventId =" + eventId, Event.class).uniqueResult();
+      // served from the second-level cache when possible (participants too)
+      event = session.get(Event.class, eventId);
       if (null != event) {
         Hibernate.initialize(event.getParticipants());
       }
@@ -113,7 +178,39 @@ public class EventAccessor {
   }
 
   /**
-   * Retrieve or create an event type with given name.
+   * Retrieve all events with given ids with their participants, using one query
+   * per {@link #STATUS_UPDATE_BATCH_SIZE} ids. Missing events are ignored.
+   *
+   * @param eventIds a collection of event ids to look up (cannot be null)
+   * @return the events with given ids by id (possibly empty), null if an error
+   *         occurred (i.e. missing events cannot be told apart)
+   * @throws IllegalArgumentException if given collection is null
+   */
+  public Map<Long, Event> getEventsAndParticipantsByIds(Collection<Long> eventIds) {
+    if (null == eventIds) {
+      throw new IllegalArgumentException("cannot retrieve events with null list of ids");
+    }
+    List<Long> ids = new ArrayList<>(new LinkedHashSet<>(eventIds));
+    Map<Long, Event> events = new HashMap<>();
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("retrieve {} events by id (with their participants)", ids.size());
+      for (int i = 0; i < ids.size(); i += STATUS_UPDATE_BATCH_SIZE) {
+        List<Long> batch = ids.subList(i, Math.min(i + STATUS_UPDATE_BATCH_SIZE, ids.size()));
+        session.createNamedQuery("Event.findByIdsWithParticipants", Event.class).setParameterList("ids", batch)
+            .list().forEach(event -> events.put(event.getEventId(), event));
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve {} events by id with their participants", ids.size(), e);
+      return null;
+    }
+    return events;
+  }
+
+  /**
+   * Retrieve or create an event type with given name. Event types are cached by
+   * name once retrieved, so the database is only queried the first time a name
+   * is requested. Concurrent requests for a new name are serialised, i.e. the
+   * type is only created once.
    *
    * @param name a name (cannot be null)
    * @return either the existing event with given name (exact match), a new type
@@ -124,25 +221,40 @@ public class EventAccessor {
     if (null == name || name.isBlank()) {
       throw new IllegalArgumentException("cannot retrieve event type with null or blank name");
     }
-    EventType result = null;
-    try (Session session = sessionFactory.openSession()) {
-      LOGGER.info("retrieve the event type with name '{}'", name);
-      result = session.createQuery("FROM EventType WHERE name = '" + name + "'", EventType.class).uniqueResult();
-      if (null == result) {
-        Transaction transaction = session.beginTransaction();
-        result = new EventType(name);
-        Long eventTypeId = (Long) session.save(result);
-        LOGGER.info("new event type saved with id:{}", eventTypeId);
-        transaction.commit();
-        // we need to set the eventTypeId in the object we send back to tell
-        // hibernate that it does not need to care about the event type when
-        // saving an event that has been propertly saved here
-        result.setEventTypeId(eventTypeId);
-      }
-    } catch (HibernateException e) {
-      LOGGER.error("unable to store / retrieve event type with name '{}'", name, e);
+    EventType result = eventTypeCache.get(name);
+    if (null != result) {
+      eventTypeCacheHits.increment();
+      return result;
     }
-    return result;
+    eventTypeCacheMisses.increment();
+    // resolved outside of the map (no database access while holding a bin of the
+    // map), creation is serialised so a concurrent miss for the same name only
+    // retrieves the created type, and the first cached type wins (null results
+    // are not cached)
+    EventType resolved = retrieveOrCreateEventType(name);
+    if (null == resolved) {
+      return null;
+    }
+    EventType cached = eventTypeCache.putIfAbsent(name, resolved);
+    return null != cached ? cached : resolved;
+  }
+
+  /**
+   * Get the number of event type lookups served from the cache
+   *
+   * @return the number of cache hits since this accessor was created
+   */
+  public long getEventTypeCacheHits() {
+    return eventTypeCacheHits.sum();
+  }
+
+  /**
+   * Get the number of event type lookups that needed to go to the database
+   *
+   * @return the number of cache misses since this accessor was created
+   */
+  public long getEventTypeCacheMisses() {
+    return eventTypeCacheMisses.sum();
   }
 
   /**
@@ -159,9 +271,16 @@ public class EventAccessor {
       // we use a native SQL query because we cannot discriminate on entity property
       // since the Event's polymorphic @Discriminator is a database column only (not a
       // JPA property)
-      results = session.createNativeQuery(
-              "select * from Event" + (null != status ? " WHERE event_status = '" + status.name() + "'" : ""), Event.class)
-              .list();
+      // results are kept in the query cache until the event table is modified
+      if (null != status) {
+        // the named native query maps its rows to events (see its result class)
+        NativeQuery<Event> query = (NativeQuery<Event>) session.createNamedQuery("Event.findAllWithStatus", Event.class);
+        results = query.setParameter("status", status.name()).addSynchronizedEntityClass(Event.class)
+            .setCacheable(true).setCacheRegion(EVENTS_WITH_STATUS_REGION).list();
+      } else {
+        results = session.createNamedQuery("Event.findAll", Event.class).setCacheable(true)
+            .setCacheRegion(EVENTS_WITH_STATUS_REGION).list();
+      }
 
     } catch (HibernateException e) {
       LOGGER.error("unable to retrieve all events with status: {}", null != status ? status.name() : "no status", e);
@@ -169,6 +288,343 @@ public class EventAccessor {
     return null != results ? results : Collections.emptyList();
   }
 
+  /**
+   * Stream all events with given status (or all events if null status passed)
+   * without loading them all in memory. Rows are read through a forward-only
+   * cursor fetching {@link #STREAM_FETCH_SIZE} rows at a time and the underlying
+   * session is cleared as often, so only a bounded number of events are managed
+   * at any time. Events are read-only and bypass the second-level cache.
+   *
+   * The returned stream holds a session (and connection) open until it is
+   * closed, so it must be consumed in a try-with-resources block. Streamed events
+   * are detached afterwards (participants are not available).
+   *
+   * @param status a status to filter all events on
+   * @return a stream of events with given status (or all if null status passed),
+   *         an empty stream if an error occurred
+   */
+  public Stream<Event> streamAllEventsWithStatus(EventStatus status) {
+    Session session = null;
+    try {
+      session = sessionFactory.openSession();
+      LOGGER.info("stream all events with status '{}'", null != status ? status.name() : "no status");
+      Query<Event> query = null != status
+          ? session.createNamedQuery("Event.findAllWithStatus", Event.class).setParameter("status", status.name())
+          : session.createNamedQuery("Event.findAll", Event.class);
+      ScrollableResults results = query.setFetchSize(STREAM_FETCH_SIZE).setReadOnly(true)
+          .setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+      Session streamSession = session;
+      Spliterator<Event> spliterator = new Spliterators.AbstractSpliterator<Event>(Long.MAX_VALUE,
+          Spliterator.ORDERED | Spliterator.NONNULL) {
+        private int count = 0;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Event> action) {
+          // previously returned events have been consumed, we can let them go
+          if (++count % STREAM_FETCH_SIZE == 0) {
+            streamSession.clear();
+          }
+          if (!results.next()) {
+            return false;
+          }
+          action.accept((Event) results.get(0));
+          return true;
+        }
+      };
+      return StreamSupport.stream(spliterator, false).onClose(() -> {
+        results.close();
+        streamSession.close();
+      });
+    } catch (HibernateException e) {
+      LOGGER.error("unable to stream all events with status: {}", null != status ? status.name() : "no status", e);
+      if (null != session) {
+        session.close();
+      }
+    }
+    return Stream.empty();
+  }
+
+  /**
+   * Retrieve a page of events with given status (or all events if null status
+   * passed), ordered by id. Pages are delimited by the last id of the previous
+   * page (keyset pagination) rather than by an offset, so retrieving any page
+   * costs the same, e.g.:
+   *
+   * <pre>
+   * List&lt;Event&gt; page = getEventsWithStatusAfter(status, null, 100);
+   * while (!page.isEmpty()) {
+   *   // ...
+   *   page = getEventsWithStatusAfter(status, page.get(page.size() - 1).getEventId(), 100);
+   * }
+   * </pre>
+   *
+   * @param status  a status to filter all events on
+   * @param afterId the id of the last event of the previous page (excluded), null
+   *                to retrieve the first page
+   * @param limit   the maximum number of events to retrieve (strictly positive)
+   * @return the (possibly empty) list of events with given status and an id
+   *         strictly greater than given id, ordered by id
+   * @throws IllegalArgumentException if given limit is not strictly positive
+   */
+  public List<Event> getEventsWithStatusAfter(EventStatus status, Long afterId, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("cannot retrieve pages of " + limit + " events");
+    }
+    long lastId = null != afterId ? afterId : Long.MIN_VALUE;
+    List<Event> results = null;
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("retrieve at most {} events with status '{}' after id {}", limit,
+          null != status ? status.name() : "no status", afterId);
+      results = null != status
+          ? session.createNamedQuery("Event.findWithStatusAfter", Event.class).setParameter("status", status.name())
+              .setParameter("afterId", lastId).setMaxResults(limit).list()
+          : session.createNamedQuery("Event.findAllAfter", Event.class).setParameter("afterId", lastId)
+              .setMaxResults(limit).list();
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve events with status {} after id {}", null != status ? status.name() : "no status",
+          afterId, e);
+    }
+    return null != results ? results : Collections.emptyList();
+  }
+
+  /**
+   * Retrieve a summary (id, name, status and date) of the events with given
+   * status whose date is within given range, ordered by date. Summaries are read
+   * through the (status, date) index of the event table, without loading any
+   * event entity (see {@link EventSummary}), e.g., for calendar views.
+   *
+   * @param from   the start of the range (included, not null)
+   * @param to     the end of the range (excluded, not null)
+   * @param status a status to filter the events on, null for all events
+   * @return the (possibly empty) list of summaries of the events within given
+   *         range, ordered by date
+   * @throws IllegalArgumentException if any of the dates is null
+   */
+  public List<EventSummary> getEventsBetween(Date from, Date to, EventStatus status) {
+    if (null == from || null == to) {
+      throw new IllegalArgumentException("cannot retrieve events between null dates");
+    }
+    List<EventSummary> results = new ArrayList<>();
+    // all statuses are listed rather than omitted, so the index is still used
+    List<String> statuses = null != status ? Collections.singletonList(status.name())
+        : Arrays.stream(EventStatus.values()).map(EventStatus::name).collect(Collectors.toList());
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("retrieve events with status '{}' between {} and {}", null != status ? status.name() : "no status",
+          from, to);
+      try (ScrollableResults rows = session.getNamedNativeQuery("Event.findSummariesBetween")
+          .setParameterList("statuses", statuses).setParameter("from", from.getTime())
+          .setParameter("to", to.getTime()).setFetchSize(STREAM_FETCH_SIZE).setReadOnly(true)
+          .scroll(ScrollMode.FORWARD_ONLY)) {
+        while (rows.next()) {
+          results.add(new EventSummary(((Number) rows.get(0)).longValue(), (String) rows.get(1),
+              EventStatus.valueOf((String) rows.get(2)), ((Number) rows.get(3)).longValue()));
+        }
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve events with status {} between {} and {}",
+          null != status ? status.name() : "no status", from, to, e);
+      results.clear();
+    }
+    return results;
+  }
+
+  /**
+   * Retrieve the ids of all scheduled events whose date is strictly before given
+   * date, i.e. events that should have happened by then. These events are
+   * removed from the {@link ScheduledEventIndex} of this accessor, so they are
+   * expected to be moved to another status by the caller.
+   *
+   * The index is lazily (re)built from the database on first access.
+   *
+   * @param date a date to compare the events' date with (cannot be null)
+   * @return the (possibly empty) list of due event ids, ordered by date
+   * @throws IllegalArgumentException if given date is null
+   */
+  public List<Long> drainDueEventIds(Date date) {
+    if (null == date) {
+      throw new IllegalArgumentException("cannot retrieve due events with null date");
+    }
+    loadScheduledEventIndex();
+    List<Long> dueEventIds = scheduledEventIndex.drainDueBefore(date.getTime());
+    LOGGER.info("{} scheduled events due before {} (index: {})", dueEventIds.size(), date, scheduledEventIndex);
+    return dueEventIds;
+  }
+
+  /**
+   * Get the in-memory index of scheduled events maintained by this accessor
+   * (e.g., to retrieve its metrics)
+   *
+   * @return the index of scheduled events (may not be loaded yet)
+   */
+  public ScheduledEventIndex getScheduledEventIndex() {
+    return scheduledEventIndex;
+  }
+
+  /**
+   * Force the in-memory index of scheduled events to be rebuilt from the
+   * database on next access (e.g., when a bulk change failed).
+   */
+  public void invalidateScheduledEventIndex() {
+    scheduledEventIndex.invalidate();
+  }
+
+  /**
+   * Retrieve the events with given status located within given distance of
+   * given point, nearest first. Events are looked up in the in-memory
+   * {@link LocationIndex} of this accessor (lazily built from the database on
+   * first access), so only matching events are read from the database.
+   *
+   * @param latitude  the latitude of the point (in decimal degrees within [-90,
+   *                  90])
+   * @param longitude the longitude of the point (in decimal degrees within
+   *                  [-180, 180])
+   * @param radiusKm  the maximum (great-circle) distance to the point, in
+   *                  kilometres (positive)
+   * @param status    a status to filter the events on, null for all events
+   * @return the (possibly empty) list of events within given radius, nearest
+   *         first (without resolving the participants)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public List<Event> getEventsWithinRadius(double latitude, double longitude, double radiusKm, EventStatus status) {
+    checkCoordinates(latitude, longitude);
+    if (!(radiusKm >= 0)) {
+      throw new IllegalArgumentException("cannot retrieve events within a radius of " + radiusKm + " km");
+    }
+    loadLocationIndex();
+    List<Long> eventIds = locationIndex.findWithinRadius(latitude, longitude, radiusKm, status);
+    LOGGER.info("{} events with status '{}' within {} km of ({}, {}) (index: {})", eventIds.size(),
+        null != status ? status.name() : "no status", radiusKm, latitude, longitude, locationIndex);
+    return getEventsByIds(eventIds);
+  }
+
+  /**
+   * Retrieve the given number of events with given status that are the nearest
+   * to given point, nearest first. Events are looked up in the in-memory
+   * {@link LocationIndex} of this accessor (lazily built from the database on
+   * first access), so only matching events are read from the database.
+   *
+   * @param latitude  the latitude of the point (in decimal degrees within [-90,
+   *                  90])
+   * @param longitude the longitude of the point (in decimal degrees within
+   *                  [-180, 180])
+   * @param count     the maximum number of events to retrieve (strictly
+   *                  positive)
+   * @param status    a status to filter the events on, null for all events
+   * @return the (possibly empty) list of at most count events, nearest first
+   *         (without resolving the participants)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public List<Event> getNearestEvents(double latitude, double longitude, int count, EventStatus status) {
+    checkCoordinates(latitude, longitude);
+    if (count <= 0) {
+      throw new IllegalArgumentException("cannot retrieve the " + count + " nearest events");
+    }
+    loadLocationIndex();
+    List<Long> eventIds = locationIndex.findNearest(latitude, longitude, count, status);
+    LOGGER.info("{} nearest events with status '{}' to ({}, {}) (index: {})", eventIds.size(),
+        null != status ? status.name() : "no status", latitude, longitude, locationIndex);
+    return getEventsByIds(eventIds);
+  }
+
+  /**
+   * Get the in-memory spatial index of located events maintained by this
+   * accessor (e.g., to retrieve its metrics)
+   *
+   * @return the index of located events (may not be loaded yet)
+   */
+  public LocationIndex getLocationIndex() {
+    return locationIndex;
+  }
+
+  /**
+   * Force the in-memory spatial index of located events to be rebuilt from the
+   * database on next access.
+   */
+  public void invalidateLocationIndex() {
+    locationIndex.invalidate();
+  }
+
+  /**
+   * Retrieve all scheduled events with given ids (resolving the participants).
+   * Events that are not scheduled anymore are ignored.
+   *
+   * @param eventIds a list of event ids to look up (cannot be null)
+   * @return the (possibly empty) list of scheduled events with given ids
+   * @throws IllegalArgumentException if given list is null
+   */
+  public List<Event> getScheduledEventsByIds(List<Long> eventIds) {
+    if (null == eventIds) {
+      throw new IllegalArgumentException("cannot retrieve events with null list of ids");
+    }
+    List<Event> results = new ArrayList<>();
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("retrieve {} scheduled events by id", eventIds.size());
+      for (int i = 0; i < eventIds.size(); i += STATUS_UPDATE_BATCH_SIZE) {
+        List<Long> batch = eventIds.subList(i, Math.min(i + STATUS_UPDATE_BATCH_SIZE, eventIds.size()));
+        // querying the subtype entity lets hibernate filter on the discriminator
+        // column for us
+        results.addAll(
+            session.createNamedQuery("Event.findScheduledByIds", Event.class).setParameterList("ids", batch).list());
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve {} scheduled events by id", eventIds.size(), e);
+      results.clear();
+    }
+    return results;
+  }
+
+  /**
+   * Move all events with given ids to given status in one single transaction.
+   * Updates are sent as set-based statements of (at most)
+   * {@link #STATUS_UPDATE_BATCH_SIZE} rows each. Either all events are updated or
+   * none.
+   *
+   * Note that no state transition checks are performed at this level, so callers
+   * must ensure the transition is permitted for all events.
+   *
+   * @param eventIds a list of event ids to update (cannot be null)
+   * @param status   the new status of these events (cannot be null)
+   * @return the number of updated rows (0 if an error occurred)
+   * @throws IllegalArgumentException if any of the passed arguments is null
+   */
+  public int updateEventsStatus(List<Long> eventIds, EventStatus status) {
+    if (null == eventIds || null == status) {
+      throw new IllegalArgumentException("cannot update status of null list of events or to null status");
+    }
+    if (eventIds.isEmpty()) {
+      return 0;
+    }
+    int updated = 0;
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      LOGGER.info("move {} events to status '{}'", eventIds.size(), status);
+      for (int i = 0; i < eventIds.size(); i += STATUS_UPDATE_BATCH_SIZE) {
+        List<Long> batch = eventIds.subList(i, Math.min(i + STATUS_UPDATE_BATCH_SIZE, eventIds.size()));
+        // synchronising on Event invalidates its cache regions and cached queries
+        updated += session.getNamedNativeQuery("Event.updateStatus").addSynchronizedEntityClass(Event.class)
+            .setParameter("status", status.name()).setParameterList("ids", batch).executeUpdate();
+      }
+      if (NotificationDispatcher.getInstance().isOutboxEnabled()) {
+        // participants will be notified by the outbox relay once committed
+        OutboxAccessor.recordNotifications(session, eventIds, status);
+      }
+      transaction.commit();
+      if (EventStatus.SCHEDULED != status) {
+        scheduledEventIndex.remove(eventIds);
+      } else {
+        // due dates are not known here
+        scheduledEventIndex.invalidate();
+      }
+      locationIndex.updateStatus(eventIds, status);
+    } catch (HibernateException e) {
+      LOGGER.error("unable to move {} events to status '{}'", eventIds.size(), status, e);
+      updated = 0;
+    }
+    return updated;
+  }
+
   /**
    * Checks wether an {@link Event} with given name exists in the persistence
    * layer (perfect match only).
@@ -180,7 +636,8 @@ public class EventAccessor {
     boolean result = false;
     try (Session session = sessionFactory.openSession()) {
       LOGGER.info("retrieve the event with name '{}'", name);
-      Event retrievedEvent = session.createQuery("FROM Event WHERE name = '" + name + "'", Event.class).uniqueResult();
+      Event retrievedEvent = session.createNamedQuery("Event.findByName", Event.class).setParameter("name", name)
+          .uniqueResult();
       result = null != retrievedEvent;
     } catch (HibernateException e) {
       LOGGER.error("unable to check if event with name '{}' exists", name, e);
@@ -209,7 +666,11 @@ public class EventAccessor {
       Transaction transaction = session.beginTransaction();
       LOGGER.info("persist event with name '{}'", event.getName());
       session.saveOrUpdate(event);
+      recordPendingNotifications(session, Collections.singletonList(event));
       transaction.commit();
+      event.clearPendingNotification();
+      trackScheduledEvent(event, null);
+      trackLocatedEvent(event, null);
     } catch (HibernateException e) {
       LOGGER.error("unable to persist event '{}'.", event.getName(), e);
     }
@@ -238,38 +699,377 @@ public class EventAccessor {
     }
 
     try (Session session = sessionFactory.openSession()) {
+      // if we have participants, we save them too (in the same transaction)
+      Map<String, List<Participant>> newParticipants = participantAccessor.resolveExistingParticipants(session,
+          event.getParticipants());
       Transaction transaction = session.beginTransaction();
-      // if we have participants, we save them too
-      event.getParticipants().stream().filter(p -> null == p.getParticipantId())
-          .forEach(participantAccessor::persistParticipant);
+      participantAccessor.saveNewParticipants(session, newParticipants);
 
       LOGGER.info("persist event with name '{}'", event.getName());
       session.saveOrUpdate(event);
+      recordPendingNotifications(session, Collections.singletonList(event));
       transaction.commit();
+      event.clearPendingNotification();
+      trackScheduledEvent(event, null);
+      trackLocatedEvent(event, null);
     } catch (HibernateException e) {
       LOGGER.error("unable to persist event '{}' with participants", event.getName(), e);
     }
     return event.getEventId();
   }
 
+  /**
+   * Save all given events and their attached participants to the database in
+   * one single session and transaction. Unresolved participants are resolved by
+   * name in bulk (see {@link ParticipantAccessor}) and missing ones are persisted
+   * too. Inserts and updates are sent in JDBC batches (see
+   * hibernate.jdbc.batch_size in hibernate configuration). No validity checks
+   * are performed on either the events or the participants at this level (rely
+   * on proper factory methods).
+   *
+   * Either all events are saved or none.
+   *
+   * @param events a collection of events to save (assumed to be semantically
+   *               correct and not null)
+   * @return the IDs of the persisted events (in the iteration order of given
+   *         collection), an empty list if an error occurred
+   * @throws IllegalArgumentException if given collection is null, or if the name
+   *                                  of any of the events with no id already
+   *                                  exists in the database or is duplicated in
+   *                                  given collection
+   */
+  public List<Long> persistEvents(Collection<Event> events) {
+    if (null == events) {
+      throw new IllegalArgumentException("cannot persist null collection of events");
+    }
+    if (!checkNoDuplicateNames(events)) {
+      // uniqueness could not be checked, do not risk saving duplicated names
+      return Collections.emptyList();
+    }
+
+    List<Long> eventIds = new ArrayList<>();
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("persist {} events", events.size());
+      Map<String, List<Participant>> newParticipants = participantAccessor.resolveExistingParticipants(session,
+          events.stream().flatMap(e -> e.getParticipants().stream()).collect(Collectors.toList()));
+
+      Transaction transaction = session.beginTransaction();
+      participantAccessor.saveNewParticipants(session, newParticipants);
+      // the session is only flushed on commit, i.e. once all identifiers have been
+      // generated, so all inserts and updates are sent in ordered JDBC batches
+      events.forEach(session::saveOrUpdate);
+      recordPendingNotifications(session, events);
+      transaction.commit();
+      events.forEach(event -> {
+        event.clearPendingNotification();
+        eventIds.add(event.getEventId());
+        trackScheduledEvent(event, null);
+        trackLocatedEvent(event, null);
+      });
+    } catch (HibernateException | IllegalStateException e) {
+      // failures on commit (e.g., unsaved references) are converted to
+      // IllegalStateException, the transaction is rolled back either way
+      LOGGER.error("unable to persist {} events", events.size(), e);
+      eventIds.clear();
+    }
+    return eventIds;
+  }
+
   public Long persistEventAndParticipants(Event event, EventStatus status) {
     if (null == event.getEventId() && eventExistsWithName(event.getName())) {
       throw new IllegalArgumentException("event with name " + event.getName() + " already exists");
     }
 
     try (Session session = sessionFactory.openSession()) {
+      // if we have participants, we save them too (in the same transaction)
+      Map<String, List<Participant>> newParticipants = participantAccessor.resolveExistingParticipants(session,
+          event.getParticipants());
       Transaction transaction = session.beginTransaction();
-      // if we have participants, we save them too
-      event.getParticipants().stream().filter(p -> null == p.getParticipantId())
-              .forEach(participantAccessor::persistParticipant);
+      participantAccessor.saveNewParticipants(session, newParticipants);
 
       LOGGER.info("persist event with name '{}'", event.getName());
       session.saveOrUpdate(event);
-      session.createNativeQuery("update event set event_status = '" + status + "' where id_event = " + event.getEventId()).executeUpdate();
+      // synchronising on Event invalidates its cache regions and cached queries
+      session.getNamedNativeQuery("Event.updateStatus").addSynchronizedEntityClass(Event.class)
+          .setParameter("status", status.name())
+          .setParameterList("ids", Collections.singletonList(event.getEventId())).executeUpdate();
+      recordPendingNotifications(session, Collections.singletonList(event));
       transaction.commit();
+      event.clearPendingNotification();
+      trackScheduledEvent(event, status);
+      trackLocatedEvent(event, status);
     } catch (HibernateException e) {
       LOGGER.error("unable to persist event '{}' with participants", event.getName(), e);
     }
     return event.getEventId();
   }
+
+  /**
+   * Check that none of the given events with no id have a name that already
+   * exists in the database (using one query per {@link #STATUS_UPDATE_BATCH_SIZE}
+   * names) or is duplicated in given collection.
+   *
+   * @param events a collection of events to check
+   * @return true if the names have been checked, false if an error occurred
+   *         while checking them against the database
+   * @throws IllegalArgumentException if any of the names is duplicated
+   */
+  private boolean checkNoDuplicateNames(Collection<Event> events) {
+    Set<String> names = new HashSet<>();
+    for (Event event : events) {
+      if (null == event.getEventId() && !names.add(event.getName())) {
+        throw new IllegalArgumentException("event with name " + event.getName() + " is duplicated");
+      }
+    }
+    if (names.isEmpty()) {
+      return true;
+    }
+    List<String> newNames = new ArrayList<>(names);
+    try (Session session = sessionFactory.openSession()) {
+      for (int i = 0; i < newNames.size(); i += STATUS_UPDATE_BATCH_SIZE) {
+        List<String> batch = newNames.subList(i, Math.min(i + STATUS_UPDATE_BATCH_SIZE, newNames.size()));
+        List<String> existing = session.createNamedQuery("Event.findNamesIn", String.class)
+            .setParameterList("names", batch).setMaxResults(1).list();
+        if (!existing.isEmpty()) {
+          throw new IllegalArgumentException("event with name " + existing.get(0) + " already exists");
+        }
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to check if {} event names exist", names.size(), e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve or create an event type with given name from the database. Calls are
+   * serialised, so a type is only created once, and calls for different names
+   * too since SQLite only accepts one writer at a time (only happens on cache
+   * misses, i.e. about once per name).
+   *
+   * @param name a (non blank) name
+   * @return either the existing event with given name (exact match), a new type
+   *         with given name (if not existing) or null if an error occurred
+   */
+  private EventType retrieveOrCreateEventType(String name) {
+    synchronized (eventTypeCreationLock) {
+      return doRetrieveOrCreateEventType(name);
+    }
+  }
+
+  /**
+   * Retrieve or create an event type with given name from the database (not
+   * thread-safe, see {@link #retrieveOrCreateEventType(String)}).
+   *
+   * @param name a (non blank) name
+   * @return either the existing event with given name (exact match), a new type
+   *         with given name (if not existing) or null if an error occurred
+   */
+  private EventType doRetrieveOrCreateEventType(String name) {
+    EventType result = null;
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("retrieve the event type with name '{}'", name);
+      result = session.createNamedQuery("EventType.findByName", EventType.class).setParameter("name", name)
+          .uniqueResult();
+      if (null == result) {
+        Transaction transaction = session.beginTransaction();
+        result = new EventType(name);
+        Long eventTypeId = (Long) session.save(result);
+        LOGGER.info("new event type saved with id:{}", eventTypeId);
+        transaction.commit();
+        // we need to set the eventTypeId in the object we send back to tell
+        // hibernate that it does not need to care about the event type when
+        // saving an event that has been propertly saved here
+        result.setEventTypeId(eventTypeId);
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to store / retrieve event type with name '{}'", name, e);
+    }
+    return result;
+  }
+
+  /**
+   * Load the scheduled event index from the database if it has not been loaded
+   * yet (or has been invalidated). Loads are serialised, and events persisted
+   * while loading are replayed on top of the loaded snapshot (see
+   * {@link ScheduledEventIndex#beginLoad()}).
+   */
+  private void loadScheduledEventIndex() {
+    synchronized (scheduledEventIndexLoadLock) {
+      for (int attempt = 1; attempt <= INDEX_LOAD_ATTEMPTS && !scheduledEventIndex.isLoaded(); attempt++) {
+        // changes are recorded from here, i.e. before the snapshot is read
+        long generation = scheduledEventIndex.beginLoad();
+        try (Session session = sessionFactory.openSession()) {
+          LOGGER.info("rebuild scheduled event index (attempt {})", attempt);
+          Map<Long, Long> dueDates = new HashMap<>();
+          // only (id, date) pairs are read, through the (status, date) index and a
+          // forward-only cursor
+          try (ScrollableResults rows = session.getNamedNativeQuery("Event.findDueDatesWithStatus")
+              .setParameter("status", EventStatus.SCHEDULED.name()).setFetchSize(STREAM_FETCH_SIZE)
+              .setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY)) {
+            while (rows.next()) {
+              dueDates.put(((Number) rows.get(0)).longValue(), ((Number) rows.get(1)).longValue());
+            }
+          }
+          if (!scheduledEventIndex.rebuild(dueDates, generation)) {
+            LOGGER.warn("scheduled event index invalidated while loading, snapshot discarded");
+          }
+        } catch (HibernateException e) {
+          LOGGER.error("unable to rebuild scheduled event index", e);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Load the location index from the database if it has not been loaded yet (or
+   * has been invalidated). Loads are serialised, and events located or moved to
+   * another status while loading are replayed on top of the loaded snapshot
+   * (see {@link LocationIndex#beginLoad()}).
+   */
+  private void loadLocationIndex() {
+    synchronized (locationIndexLoadLock) {
+      for (int attempt = 1; attempt <= INDEX_LOAD_ATTEMPTS && !locationIndex.isLoaded(); attempt++) {
+        // changes are recorded from here, i.e. before the snapshot is read
+        long generation = locationIndex.beginLoad();
+        try (Session session = sessionFactory.openSession()) {
+          LOGGER.info("rebuild location index (attempt {})", attempt);
+          List<LocationIndex.Entry> locatedEvents = new ArrayList<>();
+          // only (id, status, latitude, longitude) rows are read, through a
+          // forward-only cursor
+          try (ScrollableResults rows = session.getNamedNativeQuery("Event.findLocatedCoordinates")
+              .setFetchSize(STREAM_FETCH_SIZE).setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY)) {
+            while (rows.next()) {
+              locatedEvents.add(new LocationIndex.Entry(((Number) rows.get(0)).longValue(),
+                  EventStatus.valueOf((String) rows.get(1)), ((Number) rows.get(2)).doubleValue(),
+                  ((Number) rows.get(3)).doubleValue()));
+            }
+          }
+          if (!locationIndex.rebuild(locatedEvents, generation)) {
+            LOGGER.warn("location index invalidated while loading, snapshot discarded");
+          }
+        } catch (HibernateException e) {
+          LOGGER.error("unable to rebuild location index", e);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieve the events with given ids, in the order of given ids (missing
+   * events are ignored)
+   *
+   * @param eventIds a list of event ids to look up
+   * @return the (possibly empty) list of events with given ids, an empty list if
+   *         an error occurred
+   */
+  private List<Event> getEventsByIds(List<Long> eventIds) {
+    Map<Long, Event> events = new HashMap<>();
+    try (Session session = sessionFactory.openSession()) {
+      for (int i = 0; i < eventIds.size(); i += STATUS_UPDATE_BATCH_SIZE) {
+        List<Long> batch = eventIds.subList(i, Math.min(i + STATUS_UPDATE_BATCH_SIZE, eventIds.size()));
+        session.createNamedQuery("Event.findByIds", Event.class).setParameterList("ids", batch).list()
+            .forEach(event -> events.put(event.getEventId(), event));
+      }
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve {} events by id", eventIds.size(), e);
+      return Collections.emptyList();
+    }
+    return eventIds.stream().map(events::get).filter(event -> null != event).collect(Collectors.toList());
+  }
+
+  /**
+   * Check that given coordinates are within range
+   *
+   * @param latitude  a latitude (in decimal degrees)
+   * @param longitude a longitude (in decimal degrees)
+   * @throws IllegalArgumentException if given coordinates are out of range
+   */
+  private static void checkCoordinates(double latitude, double longitude) {
+    if (!(Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180)) {
+      throw new IllegalArgumentException("invalid coordinates (" + latitude + ", " + longitude + ")");
+    }
+  }
+
+  /**
+   * Record the pending status change notifications of given (saved) events in
+   * the outbox, as part of the transaction of given session (see
+   * {@link Event#getPendingNotification()}).
+   *
+   * Notifications are inserted from the event rows, so they are only recorded
+   * when the transaction commits, right after the session has been flushed
+   * (i.e. the event rows are still written in JDBC batches at commit time).
+   *
+   * @param session an open session with an active transaction
+   * @param events  events that have been saved in given session
+   */
+  private void recordPendingNotifications(Session session, Collection<Event> events) {
+    Map<EventStatus, List<Long>> pending = events.stream().filter(event -> null != event.getPendingNotification())
+        .collect(Collectors.groupingBy(Event::getPendingNotification,
+            Collectors.mapping(Event::getEventId, Collectors.toList())));
+    if (pending.isEmpty()) {
+      return;
+    }
+    BeforeTransactionCompletionProcess record = flushed -> pending
+        .forEach((status, eventIds) -> OutboxAccessor.recordNotifications(flushed, eventIds, status));
+    session.unwrap(EventSource.class).getActionQueue().registerProcess(record);
+  }
+
+  /**
+   * Keep the scheduled event index in sync with given (persisted) event.
+   *
+   * @param event  a persisted event
+   * @param status the status the event has been persisted with, if null, it is
+   *               inferred from the event's type
+   */
+  private void trackScheduledEvent(Event event, EventStatus status) {
+    if (null == event.getEventId()) {
+      return;
+    }
+    boolean scheduled = null != status ? EventStatus.SCHEDULED == status : event instanceof ScheduledEvent;
+    if (scheduled && null != event.getDateMillis()) {
+      scheduledEventIndex.put(event.getEventId(), event.getDateMillis());
+    } else {
+      scheduledEventIndex.remove(Collections.singletonList(event.getEventId()));
+    }
+  }
+
+  /**
+   * Keep the location index in sync with given (persisted) event.
+   *
+   * @param event  a persisted event
+   * @param status the status the event has been persisted with, if null, it is
+   *               inferred from the event's type
+   */
+  private void trackLocatedEvent(Event event, EventStatus status) {
+    if (null == event.getEventId()) {
+      return;
+    }
+    Location location = event.getLocation();
+    if (null != location && location.hasCoordinates()) {
+      locationIndex.put(event.getEventId(), null != status ? status : statusOf(event), location.getLatitude(),
+          location.getLongitude());
+    } else {
+      locationIndex.remove(Collections.singletonList(event.getEventId()));
+    }
+  }
+
+  /**
+   * Get the status of given event from its type
+   *
+   * @param event an event
+   * @return the status matching the type of given event
+   */
+  private static EventStatus statusOf(Event event) {
+    if (event instanceof ScheduledEvent) {
+      return EventStatus.SCHEDULED;
+    } else if (event instanceof PastEvent) {
+      return EventStatus.PAST;
+    } else if (event instanceof CanceledEvent) {
+      return EventStatus.CANCELED;
+    }
+    return event instanceof ArchivedEvent ? EventStatus.ARCHIVED : null;
+  }
 }
@@ -0,0 +1,527 @@
+package uc.seng301.eventapp.accessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import uc.seng301.eventapp.model.EventStatus;
+
+/**
+ * In-memory spatial index of the events that have a located {@link
+ * uc.seng301.eventapp.model.Location} (k-d tree). It allows to retrieve the
+ * events within a radius of a point, or the nearest ones, without scanning all
+ * events, i.e. queries visit O(log n + k) nodes on average rather than n.
+ *
+ * Coordinates are indexed as points on the unit sphere (3 dimensions), so
+ * distances are great-circle distances and there are no special cases at the
+ * poles or along the antimeridian.
+ *
+ * The index is meant to be kept in sync by the {@link EventAccessor} that owns
+ * it. The tree is built once from all located events; events added or moved
+ * afterwards are kept aside (and scanned) until the tree is rebuilt, while
+ * moved or removed events are lazily discarded from the tree (a map keeps the
+ * authoritative entry of every indexed event). Changes made while the index is
+ * being loaded (see {@link #beginLoad()}) are replayed on top of the loaded
+ * snapshot, and a load is discarded if the index has been invalidated in the
+ * meantime.
+ *
+ * All methods are thread-safe.
+ */
+public class LocationIndex {
+
+  /**
+   * Mean radius of the earth, in kilometres
+   */
+  public static final double EARTH_RADIUS_KM = 6371.0088;
+
+  /**
+   * Indexed event, i.e. an event id, its status and its coordinates (as a point
+   * on the unit sphere)
+   */
+  static final class Entry {
+    private final long eventId;
+    private final double[] point;
+    private EventStatus status;
+
+    /**
+     * Default constructor.
+     *
+     * @param eventId   an event id
+     * @param status    the status of that event
+     * @param latitude  the latitude of its location (in decimal degrees)
+     * @param longitude the longitude of its location (in decimal degrees)
+     */
+    Entry(long eventId, EventStatus status, double latitude, double longitude) {
+      this.eventId = eventId;
+      this.status = status;
+      double phi = Math.toRadians(latitude);
+      double lambda = Math.toRadians(longitude);
+      point = new double[] { Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi) };
+    }
+  }
+
+  /**
+   * Candidate result of a query, i.e. an entry and its (squared chord) distance
+   * to the queried point
+   */
+  private static final class Match {
+    private final Entry entry;
+    private final double distance;
+
+    private Match(Entry entry, double distance) {
+      this.entry = entry;
+      this.distance = distance;
+    }
+  }
+
+  private static final Comparator<Match> BY_DISTANCE = Comparator.comparingDouble(match -> match.distance);
+
+  private final Map<Long, Entry> entries = new HashMap<>();
+  // implicit balanced tree: the root of a range is its middle element
+  private Entry[] tree = new Entry[0];
+  private final List<Entry> pending = new ArrayList<>();
+  private boolean loaded = false;
+  private long generation = 0;
+  // changes to replay once loaded, null if no load is in progress
+  private List<Runnable> changesDuringLoad;
+  private long lastQueryNanos = 0;
+  private int lastQueryVisited = 0;
+
+  /**
+   * Check whether this index has been (re)built from the persistence layer
+   *
+   * @return true if the index has been loaded, false if it needs to be rebuilt
+   */
+  public synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Start loading this index, i.e. record all changes from now on so they can be
+   * replayed on top of the snapshot passed to
+   * {@link #rebuild(Collection, long)}. The snapshot must be read after this
+   * call. Loads are not expected to overlap (the last one started wins).
+   *
+   * @return the generation of this load
+   */
+  synchronized long beginLoad() {
+    changesDuringLoad = new ArrayList<>();
+    return ++generation;
+  }
+
+  /**
+   * Replace the whole content of this index by given located events, replay the
+   * changes made since given load began and mark this index as loaded. Nothing
+   * is done if this index has been invalidated (or another load began) since
+   * then, as given snapshot may be stale.
+   *
+   * @param locatedEvents  the entries of all located events
+   * @param loadGeneration the generation returned by {@link #beginLoad()}
+   * @return true if this index has been rebuilt, false if given snapshot has
+   *         been discarded
+   */
+  synchronized boolean rebuild(Collection<Entry> locatedEvents, long loadGeneration) {
+    if (loadGeneration != generation || null == changesDuringLoad) {
+      return false;
+    }
+    entries.clear();
+    locatedEvents.forEach(entry -> entries.put(entry.eventId, entry));
+    buildTree();
+    List<Runnable> changes = changesDuringLoad;
+    changesDuringLoad = null;
+    loaded = true;
+    changes.forEach(Runnable::run);
+    return true;
+  }
+
+  /**
+   * Mark this index as stale, it will need to be rebuilt before being used again
+   * (any load in progress is discarded)
+   */
+  synchronized void invalidate() {
+    entries.clear();
+    tree = new Entry[0];
+    pending.clear();
+    generation++;
+    changesDuringLoad = null;
+    loaded = false;
+  }
+
+  /**
+   * Add or update the status and coordinates of given event. Ignored if the
+   * index is not loaded yet (will be picked up when rebuilding, or replayed if
+   * it is being loaded).
+   *
+   * @param eventId   a (non null) event id
+   * @param status    the status of that event
+   * @param latitude  the latitude of its location (in decimal degrees)
+   * @param longitude the longitude of its location (in decimal degrees)
+   */
+  synchronized void put(Long eventId, EventStatus status, double latitude, double longitude) {
+    if (!loaded) {
+      recordDuringLoad(() -> put(eventId, status, latitude, longitude));
+      return;
+    }
+    Entry entry = new Entry(eventId, status, latitude, longitude);
+    Entry previous = entries.get(eventId);
+    if (null != previous && Arrays.equals(previous.point, entry.point)) {
+      previous.status = status;
+      return;
+    }
+    entries.put(eventId, entry);
+    pending.add(entry);
+    compactIfNeeded();
+  }
+
+  /**
+   * Update the status of given events (e.g., after a bulk status change).
+   * Ignored if the index is not loaded yet (replayed if it is being loaded).
+   *
+   * @param eventIds a collection of event ids
+   * @param status   the new status of these events
+   */
+  synchronized void updateStatus(Collection<Long> eventIds, EventStatus status) {
+    if (!loaded) {
+      List<Long> updated = new ArrayList<>(eventIds);
+      recordDuringLoad(() -> updateStatus(updated, status));
+      return;
+    }
+    for (Long eventId : eventIds) {
+      Entry entry = entries.get(eventId);
+      if (null != entry) {
+        entry.status = status;
+      }
+    }
+  }
+
+  /**
+   * Remove given events from this index (e.g., when they are not located
+   * anymore). Ignored if the index is not loaded yet (replayed if it is being
+   * loaded).
+   *
+   * @param eventIds a collection of event ids
+   */
+  synchronized void remove(Collection<Long> eventIds) {
+    if (!loaded) {
+      List<Long> removed = new ArrayList<>(eventIds);
+      recordDuringLoad(() -> remove(removed));
+      return;
+    }
+    eventIds.forEach(entries::remove);
+    compactIfNeeded();
+  }
+
+  /**
+   * Retrieve the ids of the events with given status located within given
+   * (great-circle) distance of given point. The index must have been loaded
+   * before.
+   *
+   * @param latitude  the latitude of the point (in decimal degrees)
+   * @param longitude the longitude of the point (in decimal degrees)
+   * @param radiusKm  the maximum distance to the point (in kilometres)
+   * @param status    the status of the events to retrieve, null for any status
+   * @return the (possibly empty) list of event ids, nearest first
+   */
+  synchronized List<Long> findWithinRadius(double latitude, double longitude, double radiusKm, EventStatus status) {
+    long start = System.nanoTime();
+    double[] query = new Entry(0, null, latitude, longitude).point;
+    // the chord subtending an arc of given length, squared
+    double chord = radiusKm >= Math.PI * EARTH_RADIUS_KM ? 2 : 2 * Math.sin(radiusKm / (2 * EARTH_RADIUS_KM));
+    double maxDistance = chord * chord;
+    List<Match> matches = new ArrayList<>();
+    lastQueryVisited = 0;
+    searchRadius(0, tree.length, 0, query, maxDistance, status, matches);
+    for (Entry entry : pending) {
+      lastQueryVisited++;
+      double distance = distance(query, entry.point);
+      if (distance <= maxDistance && isCurrent(entry, status)) {
+        matches.add(new Match(entry, distance));
+      }
+    }
+    matches.sort(BY_DISTANCE);
+    lastQueryNanos = System.nanoTime() - start;
+    return toEventIds(matches);
+  }
+
+  /**
+   * Retrieve the ids of the given number of events with given status that are
+   * the nearest to given point. The index must have been loaded before.
+   *
+   * @param latitude  the latitude of the point (in decimal degrees)
+   * @param longitude the longitude of the point (in decimal degrees)
+   * @param count     the maximum number of events to retrieve
+   * @param status    the status of the events to retrieve, null for any status
+   * @return the (possibly empty) list of at most count event ids, nearest first
+   */
+  synchronized List<Long> findNearest(double latitude, double longitude, int count, EventStatus status) {
+    long start = System.nanoTime();
+    double[] query = new Entry(0, null, latitude, longitude).point;
+    // max-heap of the best matches so far, the farthest one on top
+    PriorityQueue<Match> nearest = new PriorityQueue<>(Math.max(1, count), BY_DISTANCE.reversed());
+    lastQueryVisited = 0;
+    if (count > 0) {
+      searchNearest(0, tree.length, 0, query, count, status, nearest);
+      for (Entry entry : pending) {
+        lastQueryVisited++;
+        offer(nearest, new Match(entry, distance(query, entry.point)), count, status);
+      }
+    }
+    List<Match> matches = new ArrayList<>(nearest);
+    matches.sort(BY_DISTANCE);
+    lastQueryNanos = System.nanoTime() - start;
+    return toEventIds(matches);
+  }
+
+  /**
+   * Get the number of located events currently indexed
+   *
+   * @return the size of this index
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the time it took to perform the last query
+   *
+   * @return the latency of the last query (in nanoseconds), 0 if never queried
+   */
+  public synchronized long getLastQueryLatencyNanos() {
+    return lastQueryNanos;
+  }
+
+  /**
+   * Get the number of indexed entries the last query had to look at
+   *
+   * @return the number of visited entries of the last query
+   */
+  public synchronized int getLastQueryVisited() {
+    return lastQueryVisited;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "{ size='" + size() + "', lastQueryVisited='" + lastQueryVisited + "', lastQueryLatencyNanos='"
+        + lastQueryNanos + "' }";
+  }
+
+  /**
+   * Collect the current entries within given distance of given point in the
+   * subtree spanning given range of the tree
+   *
+   * @param from        the first index of the range (included)
+   * @param to          the last index of the range (excluded)
+   * @param depth       the depth of the subtree (i.e. its splitting axis)
+   * @param query       the queried point
+   * @param maxDistance the maximum squared chord distance to the point
+   * @param status      the status of the entries to collect, null for any
+   * @param matches     where to collect the entries
+   */
+  private void searchRadius(int from, int to, int depth, double[] query, double maxDistance, EventStatus status,
+      List<Match> matches) {
+    if (from >= to) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    Entry node = tree[middle];
+    lastQueryVisited++;
+    double distance = distance(query, node.point);
+    if (distance <= maxDistance && isCurrent(node, status)) {
+      matches.add(new Match(node, distance));
+    }
+    double delta = query[depth % 3] - node.point[depth % 3];
+    if (delta <= 0 || delta * delta <= maxDistance) {
+      searchRadius(from, middle, depth + 1, query, maxDistance, status, matches);
+    }
+    if (delta >= 0 || delta * delta <= maxDistance) {
+      searchRadius(middle + 1, to, depth + 1, query, maxDistance, status, matches);
+    }
+  }
+
+  /**
+   * Collect the nearest current entries to given point in the subtree spanning
+   * given range of the tree, nearer side first so farther sides can be pruned
+   *
+   * @param from    the first index of the range (included)
+   * @param to      the last index of the range (excluded)
+   * @param depth   the depth of the subtree (i.e. its splitting axis)
+   * @param query   the queried point
+   * @param count   the number of entries to collect
+   * @param status  the status of the entries to collect, null for any
+   * @param nearest the nearest entries collected so far
+   */
+  private void searchNearest(int from, int to, int depth, double[] query, int count, EventStatus status,
+      PriorityQueue<Match> nearest) {
+    if (from >= to) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    Entry node = tree[middle];
+    lastQueryVisited++;
+    offer(nearest, new Match(node, distance(query, node.point)), count, status);
+    double delta = query[depth % 3] - node.point[depth % 3];
+    boolean lowerFirst = delta <= 0;
+    if (lowerFirst) {
+      searchNearest(from, middle, depth + 1, query, count, status, nearest);
+    } else {
+      searchNearest(middle + 1, to, depth + 1, query, count, status, nearest);
+    }
+    if (nearest.size() < count || delta * delta <= nearest.peek().distance) {
+      if (lowerFirst) {
+        searchNearest(middle + 1, to, depth + 1, query, count, status, nearest);
+      } else {
+        searchNearest(from, middle, depth + 1, query, count, status, nearest);
+      }
+    }
+  }
+
+  /**
+   * Keep given match among the nearest ones if it is current and nearer than
+   * the farthest kept so far
+   *
+   * @param nearest the nearest entries collected so far
+   * @param match   a candidate entry
+   * @param count   the number of entries to collect
+   * @param status  the status of the entries to collect, null for any
+   */
+  private void offer(PriorityQueue<Match> nearest, Match match, int count, EventStatus status) {
+    if (!isCurrent(match.entry, status)) {
+      return;
+    }
+    if (nearest.size() < count) {
+      nearest.add(match);
+    } else if (match.distance < nearest.peek().distance) {
+      nearest.poll();
+      nearest.add(match);
+    }
+  }
+
+  /**
+   * Check whether given entry is still the authoritative one of its event (i.e.
+   * the event has not been moved or removed since) and has given status
+   *
+   * @param entry  an entry of the tree or kept aside
+   * @param status a status, null for any
+   * @return true if the entry is current and has given status
+   */
+  private boolean isCurrent(Entry entry, EventStatus status) {
+    return entries.get(entry.eventId) == entry && (null == status || status == entry.status);
+  }
+
+  /**
+   * Record given change to replay it once loaded (if a load is in progress)
+   *
+   * @param change the change to replay
+   */
+  private void recordDuringLoad(Runnable change) {
+    if (null != changesDuringLoad) {
+      changesDuringLoad.add(change);
+    }
+  }
+
+  /**
+   * Rebuild the tree when too many entries are kept aside or stale
+   */
+  private void compactIfNeeded() {
+    if (pending.size() > 64 + tree.length / 8 || tree.length > 2 * entries.size() + 64) {
+      buildTree();
+    }
+  }
+
+  /**
+   * Build a balanced tree of all current entries (pending ones included)
+   */
+  private void buildTree() {
+    tree = entries.values().toArray(new Entry[0]);
+    pending.clear();
+    buildTree(0, tree.length, 0);
+  }
+
+  /**
+   * Arrange given range of the tree so its middle element splits it along the
+   * axis of given depth, then arrange both halves the same way
+   *
+   * @param from  the first index of the range (included)
+   * @param to    the last index of the range (excluded)
+   * @param depth the depth of the range in the tree
+   */
+  private void buildTree(int from, int to, int depth) {
+    if (to - from <= 1) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    select(from, to - 1, middle, depth % 3);
+    buildTree(from, middle, depth + 1);
+    buildTree(middle + 1, to, depth + 1);
+  }
+
+  /**
+   * Partially order given range of the tree along given axis (quickselect), so
+   * that the entry at given rank is the one it would hold if the range was
+   * sorted, with lower entries before it and higher ones after it
+   *
+   * @param low  the first index of the range (included)
+   * @param high the last index of the range (included)
+   * @param rank the index of the entry to place
+   * @param axis the coordinate to order the entries on
+   */
+  private void select(int low, int high, int rank, int axis) {
+    while (low < high) {
+      double pivot = tree[(low + high) >>> 1].point[axis];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (tree[i].point[axis] < pivot) {
+          i++;
+        }
+        while (tree[j].point[axis] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          Entry swapped = tree[i];
+          tree[i++] = tree[j];
+          tree[j--] = swapped;
+        }
+      }
+      if (rank <= j) {
+        high = j;
+      } else if (rank >= i) {
+        low = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Compute the squared (chord) distance between two points of the unit sphere,
+   * which grows with their great-circle distance
+   *
+   * @param a a point of the unit sphere
+   * @param b another point of the unit sphere
+   * @return the squared distance between both points
+   */
+  private static double distance(double[] a, double[] b) {
+    double dx = a[0] - b[0];
+    double dy = a[1] - b[1];
+    double dz = a[2] - b[2];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Extract the event ids of given matches, in order
+   *
+   * @param matches a list of matches
+   * @return the event ids of these matches
+   */
+  private static List<Long> toEventIds(List<Match> matches) {
+    List<Long> eventIds = new ArrayList<>(matches.size());
+    matches.forEach(match -> eventIds.add(match.entry.eventId));
+    return eventIds;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+package uc.seng301.eventapp.accessor;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.model.OutboxNotification;
+
+/**
+ * This class handles the {@link OutboxNotification} entities, i.e. the status
+ * change notifications that still have to be delivered.
+ *
+ * Notifications are recorded by the {@link EventAccessor} in the same
+ * transaction as the status change of the events (see
+ * {@link #recordNotifications(Session, List, EventStatus)}), and are read and
+ * deleted by a relay (see
+ * {@link uc.seng301.eventapp.notification.OutboxRelay}) once delivered.
+ */
+public class OutboxAccessor {
+
+  private static final Logger LOGGER = LogManager.getLogger(OutboxAccessor.class);
+  private final SessionFactory sessionFactory;
+
+  /**
+   * Default constructor.
+   *
+   * @param sessionFactory the JPA session factory to talk to the persistence
+   *                       implementation.
+   */
+  public OutboxAccessor(SessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  /**
+   * Retrieve the oldest notifications that have not been delivered yet
+   *
+   * @param limit the maximum number of notifications to retrieve (strictly
+   *              positive)
+   * @return the (possibly empty) list of pending notifications, oldest first
+   * @throws IllegalArgumentException if given limit is not strictly positive
+   */
+  public List<OutboxNotification> getPendingNotifications(int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("cannot retrieve batches of " + limit + " notifications");
+    }
+    List<OutboxNotification> results = null;
+    try (Session session = sessionFactory.openSession()) {
+      results = session.createNamedQuery("OutboxNotification.findPending", OutboxNotification.class)
+          .setMaxResults(limit).list();
+    } catch (HibernateException e) {
+      LOGGER.error("unable to retrieve pending notifications", e);
+    }
+    return null != results ? results : Collections.emptyList();
+  }
+
+  /**
+   * Delete the notifications with given ids (i.e. once they have been
+   * delivered)
+   *
+   * @param notificationIds a list of notification ids (cannot be null)
+   * @return the number of deleted notifications (0 if an error occurred)
+   * @throws IllegalArgumentException if given list is null
+   */
+  public int deleteNotifications(List<Long> notificationIds) {
+    if (null == notificationIds) {
+      throw new IllegalArgumentException("cannot delete notifications with null list of ids");
+    }
+    if (notificationIds.isEmpty()) {
+      return 0;
+    }
+    int deleted = 0;
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (int i = 0; i < notificationIds.size(); i += EventAccessor.STATUS_UPDATE_BATCH_SIZE) {
+        List<Long> batch = notificationIds.subList(i,
+            Math.min(i + EventAccessor.STATUS_UPDATE_BATCH_SIZE, notificationIds.size()));
+        deleted += session.createNamedQuery("OutboxNotification.deleteByIds").setParameterList("ids", batch)
+            .executeUpdate();
+      }
+      transaction.commit();
+    } catch (HibernateException e) {
+      LOGGER.error("unable to delete {} delivered notifications", notificationIds.size(), e);
+      deleted = 0;
+    }
+    return deleted;
+  }
+
+  /**
+   * Record that the events with given ids have been moved to given status, as
+   * part of the transaction bound to given session (i.e. the notifications are
+   * only recorded if that transaction commits).
+   *
+   * @param session   an open session with an active transaction
+   * @param eventIds  the ids of the (persisted) events that changed their status
+   * @param newStatus the new status of these events
+   * @return the number of recorded notifications
+   */
+  static int recordNotifications(Session session, List<Long> eventIds, EventStatus newStatus) {
+    int recorded = 0;
+    Date now = new Date();
+    for (int i = 0; i < eventIds.size(); i += EventAccessor.STATUS_UPDATE_BATCH_SIZE) {
+      List<Long> batch = eventIds.subList(i, Math.min(i + EventAccessor.STATUS_UPDATE_BATCH_SIZE, eventIds.size()));
+      recorded += session.getNamedNativeQuery("OutboxNotification.insertForEvents")
+          .addSynchronizedEntityClass(OutboxNotification.class).setParameter("status", newStatus.name())
+          .setParameter("createdAt", now).setParameterList("ids", batch).executeUpdate();
+    }
+    LOGGER.debug("recorded {} notifications of status '{}'", recorded, newStatus);
+    return recorded;
+  }
+}
@@ -27,6 +27,12 @@
 
 package uc.seng301.eventapp.accessor;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.HibernateException;
@@ -47,6 +53,12 @@ import uc.seng301.eventapp.model.Participant;
  */
 public class ParticipantAccessor {
 
+  /**
+   * Maximum number of names looked up in a single query (keeps the number of
+   * bound parameters under SQLite's limit)
+   */
+  public static final int NAME_LOOKUP_BATCH_SIZE = 500;
+
   private static final Logger LOGGER = LogManager.getLogger(ParticipantAccessor.class);
   private final SessionFactory sessionFactory;
 
@@ -74,7 +86,7 @@ public class ParticipantAccessor {
     }
     Participant participant = null;
     try (Session session = sessionFactory.openSession()) {
-      participant = session.createQuery("FROM Participant WHERE name = '" + name + "'", Participant.class)
+      participant = session.createNamedQuery("Participant.findByName", Participant.class).setParameter("name", name)
           .uniqueResult();
     } catch (HibernateException e) {
       LOGGER.error("unable to get participant by name '{}'", name, e);
@@ -98,8 +110,8 @@ public class ParticipantAccessor {
     Participant participant = null;
     try (Session session = sessionFactory.openSession()) {
       LOGGER.info("retrieve the participant with id {}", participantId);
-      participant = session.createQuery("FROM Participant WHERE participantId =" + participantId, Participant.class)
-          .uniqueResult();
+      // served from the second-level cache when possible
+      participant = session.get(Participant.class, participantId);
     } catch (HibernateException e) {
       LOGGER.error("unable to get participant with id {}", participantId, e);
     }
@@ -139,4 +151,111 @@ public class ParticipantAccessor {
     }
     return participant.getParticipantId();
   }
+
+  /**
+   * Resolve the ids of all participants with given names, creating the missing
+   * ones. Existing names are looked up with a single query per
+   * {@link #NAME_LOOKUP_BATCH_SIZE} names and missing participants are all saved
+   * in one single transaction (duplicated names are only considered once).
+   *
+   * @param names a list of participant names (none can be null or blank)
+   * @return a map of given names to their participant id (in the order of given
+   *         list), an empty map if an error occurred
+   * @throws IllegalArgumentException if given list is null or any of the names is
+   *                                  null or blank
+   */
+  public Map<String, Long> resolveOrCreateParticipants(List<String> names) throws IllegalArgumentException {
+    if (null == names) {
+      throw new IllegalArgumentException("cannot resolve null list of names");
+    }
+    Map<String, Participant> participants = new LinkedHashMap<>();
+    for (String name : names) {
+      if (null == name || name.isBlank()) {
+        throw new IllegalArgumentException("name '" + name + "' cannot be null or blank");
+      }
+      participants.computeIfAbsent(name, Participant::new);
+    }
+
+    Map<String, Long> result = new LinkedHashMap<>();
+    try (Session session = sessionFactory.openSession()) {
+      LOGGER.info("resolve or create {} participants", participants.size());
+      Map<String, List<Participant>> newParticipants = resolveExistingParticipants(session, participants.values());
+      Transaction transaction = session.beginTransaction();
+      saveNewParticipants(session, newParticipants);
+      transaction.commit();
+      participants.forEach((name, participant) -> result.put(name, participant.getParticipantId()));
+    } catch (HibernateException e) {
+      LOGGER.error("unable to resolve or create {} participants", participants.size(), e);
+      result.clear();
+    }
+    return result;
+  }
+
+  /**
+   * Look up all given participants that have no id yet by their name within
+   * given session, using a single query per {@link #NAME_LOOKUP_BATCH_SIZE}
+   * names. The id of existing participants (same name) is set in the
+   * corresponding objects.
+   *
+   * This method must be called before any transaction is started on given
+   * session, because SQLite keeps a lock for reads done in a transaction, which
+   * would block hibernate's identifier generator (that uses its own connection)
+   * when saving the new participants.
+   *
+   * @param session      an open session (without an active transaction)
+   * @param participants a collection of participants to resolve
+   * @return the participants that do not exist yet, grouped by name (to be
+   *         passed to {@link #saveNewParticipants(Session, Map)})
+   * @throws IllegalArgumentException if any of the participants is null or has a
+   *                                  null or blank name
+   */
+  Map<String, List<Participant>> resolveExistingParticipants(Session session, Collection<Participant> participants)
+      throws IllegalArgumentException {
+    Map<String, List<Participant>> unresolved = new LinkedHashMap<>();
+    for (Participant participant : participants) {
+      if (null == participant || null == participant.getName() || participant.getName().isBlank()) {
+        throw new IllegalArgumentException("cannot save null or blank participant");
+      }
+      if (null == participant.getParticipantId()) {
+        unresolved.computeIfAbsent(participant.getName(), name -> new ArrayList<>()).add(participant);
+      }
+    }
+
+    List<String> names = new ArrayList<>(unresolved.keySet());
+    for (int i = 0; i < names.size(); i += NAME_LOOKUP_BATCH_SIZE) {
+      List<String> batch = names.subList(i, Math.min(i + NAME_LOOKUP_BATCH_SIZE, names.size()));
+      for (Participant existing : session
+          .createNamedQuery("Participant.findByNames", Participant.class).setParameterList("names", batch)
+          .list()) {
+        List<Participant> sameName = unresolved.remove(existing.getName());
+        if (null != sameName) {
+          sameName.forEach(p -> p.setParticipantId(existing.getParticipantId()));
+        }
+      }
+    }
+    return unresolved;
+  }
+
+  /**
+   * Save given new participants within given session. Participants sharing the
+   * same name are saved once and are all given the same id.
+   *
+   * No transaction is started at this level, the caller is responsible for
+   * committing it.
+   *
+   * @param session         an open session (with an active transaction)
+   * @param newParticipants new participants grouped by name, as returned by
+   *                        {@link #resolveExistingParticipants(Session, Collection)}
+   */
+  void saveNewParticipants(Session session, Map<String, List<Participant>> newParticipants) {
+    if (newParticipants.isEmpty()) {
+      return;
+    }
+    LOGGER.info("save {} new participants", newParticipants.size());
+    for (List<Participant> sameName : newParticipants.values()) {
+      Participant saved = sameName.get(0);
+      session.save(saved);
+      sameName.forEach(p -> p.setParticipantId(saved.getParticipantId()));
+    }
+  }
 }
@@ -0,0 +1,71 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+package uc.seng301.eventapp.accessor;
+
+import org.hibernate.dialect.SQLiteDialect;
+import org.hibernate.dialect.identity.IdentityColumnSupport;
+import org.hibernate.dialect.identity.IdentityColumnSupportImpl;
+
+/**
+ * SQLite dialect supporting identity columns, i.e. ids generated by the
+ * database when a row is inserted without one (see
+ * {@link uc.seng301.eventapp.model.OutboxNotification}).
+ *
+ * An identity column is declared as an "integer" column that is the primary key
+ * of its table, which SQLite assigns (as an alias of the rowid) on insert.
+ */
+public class SQLiteIdentityDialect extends SQLiteDialect {
+
+  private static final IdentityColumnSupport IDENTITY_COLUMN_SUPPORT = new IdentityColumnSupportImpl() {
+
+    @Override
+    public boolean supportsIdentityColumns() {
+      return true;
+    }
+
+    @Override
+    public boolean hasDataTypeInIdentityColumn() {
+      return false;
+    }
+
+    @Override
+    public String getIdentityColumnString(int type) {
+      return "integer";
+    }
+
+    @Override
+    public String getIdentitySelectString(String table, String column, int type) {
+      return "select last_insert_rowid()";
+    }
+  };
+
+  @Override
+  public IdentityColumnSupport getIdentityColumnSupport() {
+    return IDENTITY_COLUMN_SUPPORT;
+  }
+}
@@ -0,0 +1,230 @@
+package uc.seng301.eventapp.accessor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory index of scheduled events ordered by their date (min-heap). It
+ * allows to retrieve the events that become due when the calendar changes
+ * without scanning all scheduled events, i.e. draining k due events out of n
+ * scheduled ones costs O(k log n).
+ *
+ * The index is meant to be kept in sync by the {@link EventAccessor} that owns
+ * it. Rescheduled or removed events are lazily discarded from the heap (a map
+ * keeps the authoritative due date of every indexed event). Changes made while
+ * the index is being loaded (see {@link #beginLoad()}) are replayed on top of
+ * the loaded snapshot, and a load is discarded if the index has been
+ * invalidated in the meantime.
+ *
+ * All methods are thread-safe.
+ */
+public class ScheduledEventIndex {
+
+  /**
+   * Heap entry, i.e. an event id and its due date (in epoch millis)
+   */
+  private static final class Entry implements Comparable<Entry> {
+    private final long dueMillis;
+    private final long eventId;
+
+    private Entry(long dueMillis, long eventId) {
+      this.dueMillis = dueMillis;
+      this.eventId = eventId;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int result = Long.compare(dueMillis, other.dueMillis);
+      return 0 != result ? result : Long.compare(eventId, other.eventId);
+    }
+  }
+
+  private final PriorityQueue<Entry> heap = new PriorityQueue<>();
+  private final Map<Long, Long> dueDates = new HashMap<>();
+  private boolean loaded = false;
+  private long generation = 0;
+  // changes to replay once loaded, null if no load is in progress
+  private List<Runnable> changesDuringLoad;
+  private long lastDrainNanos = 0;
+  private int lastDrainSize = 0;
+
+  /**
+   * Check whether this index has been (re)built from the persistence layer
+   *
+   * @return true if the index has been loaded, false if it needs to be rebuilt
+   */
+  public synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Start loading this index, i.e. record all changes from now on so they can be
+   * replayed on top of the snapshot passed to {@link #rebuild(Map, long)}. The
+   * snapshot must be read after this call. Loads are not expected to overlap
+   * (the last one started wins).
+   *
+   * @return the generation of this load
+   */
+  synchronized long beginLoad() {
+    changesDuringLoad = new ArrayList<>();
+    return ++generation;
+  }
+
+  /**
+   * Replace the whole content of this index by given scheduled events, replay
+   * the changes made since given load began and mark this index as loaded.
+   * Nothing is done if this index has been invalidated (or another load began)
+   * since then, as given snapshot may be stale.
+   *
+   * @param scheduledEvents a map of event ids and their due date (in epoch
+   *                        millis)
+   * @param loadGeneration  the generation returned by {@link #beginLoad()}
+   * @return true if this index has been rebuilt, false if given snapshot has
+   *         been discarded
+   */
+  synchronized boolean rebuild(Map<Long, Long> scheduledEvents, long loadGeneration) {
+    if (loadGeneration != generation || null == changesDuringLoad) {
+      return false;
+    }
+    heap.clear();
+    dueDates.clear();
+    dueDates.putAll(scheduledEvents);
+    dueDates.forEach((eventId, dueMillis) -> heap.add(new Entry(dueMillis, eventId)));
+    List<Runnable> changes = changesDuringLoad;
+    changesDuringLoad = null;
+    loaded = true;
+    changes.forEach(Runnable::run);
+    return true;
+  }
+
+  /**
+   * Mark this index as stale, it will need to be rebuilt before being used again
+   * (any load in progress is discarded)
+   */
+  synchronized void invalidate() {
+    heap.clear();
+    dueDates.clear();
+    generation++;
+    changesDuringLoad = null;
+    loaded = false;
+  }
+
+  /**
+   * Add or update the due date of given event. Ignored if the index is not
+   * loaded yet (will be picked up when rebuilding, or replayed if it is being
+   * loaded).
+   *
+   * @param eventId   a (non null) event id
+   * @param dueMillis the event date (in epoch millis)
+   */
+  synchronized void put(Long eventId, long dueMillis) {
+    if (!loaded) {
+      recordDuringLoad(() -> put(eventId, dueMillis));
+      return;
+    }
+    Long previous = dueDates.put(eventId, dueMillis);
+    if (null == previous || previous != dueMillis) {
+      heap.add(new Entry(dueMillis, eventId));
+      compactIfNeeded();
+    }
+  }
+
+  /**
+   * Remove given events from this index (e.g., when they are not scheduled
+   * anymore). Ignored if the index is not loaded yet (replayed if it is being
+   * loaded).
+   *
+   * @param eventIds a collection of event ids
+   */
+  synchronized void remove(Collection<Long> eventIds) {
+    if (!loaded) {
+      List<Long> removed = new ArrayList<>(eventIds);
+      recordDuringLoad(() -> remove(removed));
+      return;
+    }
+    eventIds.forEach(dueDates::remove);
+    compactIfNeeded();
+  }
+
+  /**
+   * Remove and return the ids of all events that are due strictly before given
+   * date. The index must have been loaded before.
+   *
+   * @param nowMillis the current date (in epoch millis)
+   * @return the (possibly empty) list of due event ids, ordered by date
+   */
+  synchronized List<Long> drainDueBefore(long nowMillis) {
+    long start = System.nanoTime();
+    List<Long> due = new ArrayList<>();
+    while (!heap.isEmpty() && heap.peek().dueMillis < nowMillis) {
+      Entry entry = heap.poll();
+      Long current = dueDates.get(entry.eventId);
+      // stale entries (rescheduled or removed events) are simply discarded
+      if (null != current && current == entry.dueMillis) {
+        dueDates.remove(entry.eventId);
+        due.add(entry.eventId);
+      }
+    }
+    lastDrainNanos = System.nanoTime() - start;
+    lastDrainSize = due.size();
+    return due;
+  }
+
+  /**
+   * Get the number of scheduled events currently indexed
+   *
+   * @return the size of this index
+   */
+  public synchronized int size() {
+    return dueDates.size();
+  }
+
+  /**
+   * Get the time it took to perform the last drain operation
+   *
+   * @return the latency of the last drain (in nanoseconds), 0 if never drained
+   */
+  public synchronized long getLastDrainLatencyNanos() {
+    return lastDrainNanos;
+  }
+
+  /**
+   * Get the number of events returned by the last drain operation
+   *
+   * @return the number of due events removed by the last drain
+   */
+  public synchronized int getLastDrainSize() {
+    return lastDrainSize;
+  }
+
+  /**
+   * Record given change to replay it once loaded (if a load is in progress)
+   *
+   * @param change the change to replay
+   */
+  private void recordDuringLoad(Runnable change) {
+    if (null != changesDuringLoad) {
+      changesDuringLoad.add(change);
+    }
+  }
+
+  /**
+   * Rebuild the heap when it holds too many stale entries
+   */
+  private void compactIfNeeded() {
+    if (heap.size() > 2 * dueDates.size() + 64) {
+      heap.clear();
+      dueDates.forEach((eventId, dueMillis) -> heap.add(new Entry(dueMillis, eventId)));
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "{ size='" + size() + "', lastDrainSize='" + lastDrainSize + "', lastDrainLatencyNanos='" + lastDrainNanos
+        + "' }";
+  }
+}
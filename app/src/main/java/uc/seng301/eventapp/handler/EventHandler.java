@@ -72,9 +72,16 @@ public interface EventHandler {
       throws IllegalArgumentException;
 
   /**
-   * Look for and refresh the status of events when the calendar day changes.
+   * Look for and refresh the status of events when the calendar day changes, i.e.
+   * all scheduled events whose date has passed the current date (see
+   * {@link uc.seng301.eventapp.util.DateUtil#getCurrentDate()}) are moved to the
+   * past status in bulk and their participants are notified afterwards. Due
+   * events are processed in pages, each page being committed before its
+   * participants are notified.
+   *
+   * @return a report on how many events have been moved and how long it took
    */
-  void refreshEvents();
+  StatusTransitionReport refreshEvents();
 
   /**
    * Update the status of given event to a new status
@@ -1,18 +1,24 @@
 package uc.seng301.eventapp.handler;
 
-import java.util.Calendar;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import uc.seng301.eventapp.accessor.EventAccessor;
+import uc.seng301.eventapp.accessor.ParticipantAccessor;
 import uc.seng301.eventapp.model.Event;
 import uc.seng301.eventapp.model.EventStatus;
 import uc.seng301.eventapp.model.Location;
 import uc.seng301.eventapp.model.Participant;
 import uc.seng301.eventapp.model.ScheduledEvent;
+import uc.seng301.eventapp.notification.NotificationDispatcher;
 import uc.seng301.eventapp.util.DateUtil;
 
 /**
@@ -20,14 +26,37 @@ import uc.seng301.eventapp.util.DateUtil;
  */
 public class EventHandlerImpl implements EventHandler {
 
+  /**
+   * Number of due events loaded, moved and notified in one go when refreshing
+   * events (so only one page of events is held in memory at a time)
+   */
+  private static final int REFRESH_PAGE_SIZE = 100;
+
   private static final Logger LOGGER = LogManager.getLogger(EventHandlerImpl.class);
   private final EventAccessor eventAccessor;
+  private final ParticipantAccessor participantAccessor;
 
   /**
-   * Default constructor.
+   * Default constructor. New participants will only be resolved when persisting
+   * the event they are added to.
+   *
+   * @param eventAccessor the accessor for events
    */
   public EventHandlerImpl(EventAccessor eventAccessor) {
+    this(eventAccessor, null);
+  }
+
+  /**
+   * Constructor resolving (or creating) participants in bulk as soon as they are
+   * added to an event.
+   *
+   * @param eventAccessor       the accessor for events
+   * @param participantAccessor the accessor for participants (can be null, see
+   *                            {@link #EventHandlerImpl(EventAccessor)})
+   */
+  public EventHandlerImpl(EventAccessor eventAccessor, ParticipantAccessor participantAccessor) {
     this.eventAccessor = eventAccessor;
+    this.participantAccessor = participantAccessor;
   }
 
   @Override
@@ -36,18 +65,26 @@ public class EventHandlerImpl implements EventHandler {
       throw new IllegalArgumentException("event or participant list is null");
     }
 
+    List<Participant> added = new ArrayList<>();
     for (Participant participant : participants) {
       if (null == participant) {
         throw new IllegalArgumentException("one of the participant is null");
       }
-      if (event.getParticipants().stream().noneMatch(p -> p.getName().equals(participant.getName()))) {
-        LOGGER.debug("added {}: {}", participant, event.addParticipant(participant));
-        System.out.println("added particpant");
+      // hash lookup (incrementally maintained by the event) instead of a scan
+      if (!event.hasParticipantNamed(participant.getName()) && event.addParticipant(participant)) {
+        added.add(participant);
       }
     }
-    LOGGER.debug(event);
-    LOGGER.debug(participants);
-    LOGGER.debug(event.getParticipants());
+
+    // resolve all new participants at once rather than one by one when saving
+    List<String> unresolvedNames = added.stream().filter(p -> null == p.getParticipantId())
+        .map(Participant::getName).collect(Collectors.toList());
+    if (null != participantAccessor && !unresolvedNames.isEmpty()) {
+      Map<String, Long> participantIds = participantAccessor.resolveOrCreateParticipants(unresolvedNames);
+      added.forEach(p -> p.setParticipantId(participantIds.getOrDefault(p.getName(), p.getParticipantId())));
+    }
+    LOGGER.debug("added {} out of {} participants to event '{}' (now {} participants)", added.size(),
+        participants.size(), event.getName(), event.getParticipants().size());
   }
 
   @Override
@@ -72,10 +109,12 @@ public class EventHandlerImpl implements EventHandler {
       throw new IllegalArgumentException("description cannot be null or blank");
     }
 
-    Date convertedDate = DateUtil.getInstance().convertToDate(date);
-    Calendar nextYear = Calendar.getInstance();
-    nextYear.add(Calendar.YEAR, 1);
-    if (null == convertedDate || convertedDate.before(new Date()) || convertedDate.after(nextYear.getTime())) {
+    // compared as epoch millis, the date object is only created once validated
+    long dateMillis = DateUtil.getInstance().toEpochMillis(date);
+    // both bounds come from the same reading of the (possibly simulated) clock
+    ZonedDateTime now = ZonedDateTime.now(DateUtil.getInstance().getClock());
+    if (DateUtil.INVALID_DATE == dateMillis || dateMillis < now.toInstant().toEpochMilli()
+        || dateMillis > now.plusYears(1).toInstant().toEpochMilli()) {
       throw new IllegalArgumentException("date '" + date + "' does not follow expected format "
           + DateUtil.getInstance().getDefaultDateFormat() + ", is in the past or later than one year");
     }
@@ -92,19 +131,42 @@ public class EventHandlerImpl implements EventHandler {
       throw new IllegalArgumentException("location name in '" + location + "'' cannot be null or blank");
     }
 
-    return new ScheduledEvent(name, description, convertedDate, eventAccessor.getEventTypeFromName(type), cost,
+    return new ScheduledEvent(name, description, new Date(dateMillis), eventAccessor.getEventTypeFromName(type), cost,
         location);
   }
 
   @Override
-  public void refreshEvents() {
-    // could have been written as a lambda expression, kept as a for-loop for
-    // readability
-    for (Event event : eventAccessor.getAllEventsWithStatus(EventStatus.SCHEDULED)) {
-      if (event.getDate().after(DateUtil.getInstance().getCurrentDate())) {
-        updateEventStatus(event, EventStatus.PAST, null);
+  public StatusTransitionReport refreshEvents() {
+    long start = System.nanoTime();
+    // only due events are retrieved (from the in-memory scheduled event index),
+    // the status change is then done in bulk, page by page, instead of copying
+    // every single event into a PastEvent
+    List<Long> dueEventIds = eventAccessor.drainDueEventIds(DateUtil.getInstance().getCurrentDate());
+    int moved = 0;
+    for (int i = 0; i < dueEventIds.size(); i += REFRESH_PAGE_SIZE) {
+      List<Long> page = dueEventIds.subList(i, Math.min(i + REFRESH_PAGE_SIZE, dueEventIds.size()));
+      List<Event> dueEvents = eventAccessor.getScheduledEventsByIds(page);
+      int movedInPage = eventAccessor.updateEventsStatus(
+          dueEvents.stream().map(Event::getEventId).collect(Collectors.toList()), EventStatus.PAST);
+      moved += movedInPage;
+      // participants are only notified once the change has been committed (the
+      // outbox relay takes care of it if the outbox is enabled)
+      if (movedInPage > 0 && !NotificationDispatcher.getInstance().isOutboxEnabled()) {
+        dueEvents.forEach(event -> event.notifyParticipants(EventStatus.PAST));
+        LOGGER.debug("moved and notified participants of {} events ({} out of {})", movedInPage, i + page.size(),
+            dueEventIds.size());
       }
     }
+    if (moved < dueEventIds.size()) {
+      // some due events could not be moved, let the index be rebuilt from the
+      // database so they are picked up again next time
+      eventAccessor.invalidateScheduledEventIndex();
+    }
+
+    StatusTransitionReport report = new StatusTransitionReport(EventStatus.PAST, moved,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    LOGGER.info("refreshed events: {}", report);
+    return report;
   }
 
   @Override
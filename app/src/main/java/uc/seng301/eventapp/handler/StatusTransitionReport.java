@@ -0,0 +1,60 @@
+package uc.seng301.eventapp.handler;
+
+import uc.seng301.eventapp.model.EventStatus;
+
+/**
+ * Simple immutable POJO summarising a bulk status transition performed by an
+ * {@link EventHandler} (e.g., when the calendar day changes).
+ */
+public class StatusTransitionReport {
+
+  private final EventStatus newStatus;
+  private final int transitionedEvents;
+  private final long durationMillis;
+
+  /**
+   * Default constructor.
+   *
+   * @param newStatus          the status the events have been moved to
+   * @param transitionedEvents the number of events (rows) that have been moved
+   * @param durationMillis     the time it took to perform the transition (in
+   *                           milliseconds)
+   */
+  public StatusTransitionReport(EventStatus newStatus, int transitionedEvents, long durationMillis) {
+    this.newStatus = newStatus;
+    this.transitionedEvents = transitionedEvents;
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+   * Get the status the events have been moved to
+   *
+   * @return the new status of all transitioned events
+   */
+  public EventStatus getNewStatus() {
+    return this.newStatus;
+  }
+
+  /**
+   * Get the number of events that have been moved to the new status
+   *
+   * @return a (possibly zero) number of events
+   */
+  public int getTransitionedEvents() {
+    return this.transitionedEvents;
+  }
+
+  /**
+   * Get the time it took to perform the transition
+   *
+   * @return the duration in milliseconds
+   */
+  public long getDurationMillis() {
+    return this.durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    return getTransitionedEvents() + " event(s) moved to " + getNewStatus() + " in " + getDurationMillis() + " ms";
+  }
+}
@@ -0,0 +1,481 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package uc.seng301.eventapp.location;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caching decorator of a {@link LocationService}: the results of the decorated
+ * (upstream) service are kept in a size-bounded cache, evicting the least
+ * recently used entries first, and expire after a given time to live.
+ *
+ * Queries are normalised before being used as cache keys (case, accents
+ * composition and white spaces), so " christchurch" and "Christchurch" share
+ * the same entry. Queries without any city (i.e. null results) are cached as
+ * well, with their own (usually shorter) time to live.
+ *
+ * Concurrent lookups of the same key are collapsed into a single upstream call,
+ * i.e. other callers wait for the result of the first one.
+ */
+public class CachingLocationService implements LocationService {
+
+  /**
+   * Default maximum number of cached queries
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  /**
+   * Default time to live of found cities (in milliseconds)
+   */
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+  /**
+   * Default time to live of queries without any city (in milliseconds)
+   */
+  public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final Logger LOGGER = LogManager.getLogger(CachingLocationService.class);
+
+  private static final Pattern WHITE_SPACES = Pattern.compile("\\s+");
+
+  /**
+   * A cached result with its expiry time (as per System.nanoTime)
+   */
+  private static final class Entry {
+    private final LocationServiceResult result;
+    private final long expiresAt;
+
+    private Entry(LocationServiceResult result, long expiresAt) {
+      this.result = result;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final LocationService upstream;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+
+  // access-ordered, i.e. iteration starts with the least recently used entry
+  private final Map<String, Entry> cache;
+  private final Map<String, CompletableFuture<LocationServiceResult>> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+  private final AtomicLong upstreamCalls = new AtomicLong();
+  private final AtomicLong upstreamNanos = new AtomicLong();
+  private final AtomicLong maxUpstreamNanos = new AtomicLong();
+
+  /**
+   * Convenience constructor with default size and times to live
+   *
+   * @param upstream the location service to cache the results of (not null)
+   * @throws IllegalArgumentException if given upstream service is null
+   */
+  public CachingLocationService(LocationService upstream) {
+    this(upstream, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS);
+  }
+
+  /**
+   * Default constructor.
+   *
+   * @param upstream          the location service to cache the results of (not
+   *                          null)
+   * @param maxEntries        the maximum number of cached queries (strictly
+   *                          positive)
+   * @param ttlMillis         the time to live of found cities (in milliseconds,
+   *                          strictly positive)
+   * @param negativeTtlMillis the time to live of queries without any city (in
+   *                          milliseconds, 0 to not cache them)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public CachingLocationService(LocationService upstream, int maxEntries, long ttlMillis, long negativeTtlMillis) {
+    if (null == upstream) {
+      throw new IllegalArgumentException("upstream location service cannot be null");
+    }
+    if (maxEntries <= 0 || ttlMillis <= 0 || negativeTtlMillis < 0) {
+      throw new IllegalArgumentException("size '" + maxEntries + "', ttl '" + ttlMillis + "' and negative ttl '"
+          + negativeTtlMillis + "' must be positive");
+    }
+    this.upstream = upstream;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > CachingLocationService.this.maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string, from the cache if
+   * that query (once normalised) has been looked up recently, from the upstream
+   * location service otherwise.
+   *
+   * @param query a query (not null)
+   * @return the LocationResult object of a city corresponding to the search
+   *         query, null if none found
+   * @throws IllegalArgumentException if given query is null
+   */
+  @Override
+  public LocationServiceResult getCityFromString(String query) {
+    if (null == query) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    String key = normalise(query);
+    Entry entry = getCached(key);
+    if (null != entry) {
+      hits.incrementAndGet();
+      return entry.result;
+    }
+    misses.incrementAndGet();
+
+    CompletableFuture<LocationServiceResult> lookup = new CompletableFuture<>();
+    CompletableFuture<LocationServiceResult> pending = inFlight.putIfAbsent(key, lookup);
+    if (null != pending) {
+      collapsed.incrementAndGet();
+      return await(pending);
+    }
+    try {
+      // the previous lookup of that key may have completed in the meantime
+      entry = getCached(key);
+      LocationServiceResult result = null != entry ? entry.result : callUpstream(key, query.trim());
+      lookup.complete(result);
+      return result;
+    } catch (RuntimeException e) {
+      lookup.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, lookup);
+    }
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string without blocking the
+   * calling thread, from the cache if that query (once normalised) has been
+   * looked up recently, from the upstream location service otherwise.
+   *
+   * @param query a query (not null)
+   * @return a future completed with the LocationResult object of a city
+   *         corresponding to the search query, or with null if none found
+   * @throws IllegalArgumentException if given query is null
+   */
+  @Override
+  public CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    if (null == query) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    String key = normalise(query);
+    Entry entry = getCached(key);
+    if (null != entry) {
+      hits.incrementAndGet();
+      return CompletableFuture.completedFuture(entry.result);
+    }
+    misses.incrementAndGet();
+
+    CompletableFuture<LocationServiceResult> lookup = new CompletableFuture<>();
+    CompletableFuture<LocationServiceResult> pending = inFlight.putIfAbsent(key, lookup);
+    if (null != pending) {
+      collapsed.incrementAndGet();
+      return pending;
+    }
+    entry = getCached(key);
+    if (null != entry) {
+      inFlight.remove(key, lookup);
+      lookup.complete(entry.result);
+      return lookup;
+    }
+    long start = System.nanoTime();
+    String trimmed = query.trim();
+    upstream.getCityFromStringAsync(trimmed).whenComplete((result, error) -> {
+      if (null == error) {
+        record(key, trimmed, result, System.nanoTime() - start);
+      }
+      // cached first, so callers arriving after the removal do not call upstream
+      inFlight.remove(key, lookup);
+      if (null == error) {
+        lookup.complete(result);
+      } else {
+        lookup.completeExceptionally(error);
+      }
+    });
+    return lookup;
+  }
+
+  /**
+   * Retrieve the more plausible cities from a collection of query strings, from
+   * the cache for the queries (once normalised) that have been looked up
+   * recently, from the upstream location service (in a single batch) for the
+   * others. Queries normalised into the same key are only sent once.
+   *
+   * Batch lookups are not collapsed with concurrent lookups, and the latency of
+   * the upstream batch is spread evenly over its queries in the metrics.
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the LocationResult object of a city by distinct query (in iteration
+   *         order of given collection), mapped to null if none found
+   * @throws IllegalArgumentException if given collection is or contains null
+   */
+  @Override
+  public Map<String, LocationServiceResult> getCitiesFromStrings(Collection<String> queries) {
+    Map<String, LocationServiceResult> results = new LinkedHashMap<>();
+    // query to send upstream by key of the queries not found in the cache
+    Map<String, String> missing = new LinkedHashMap<>();
+    for (String query : LocationService.distinctQueries(queries)) {
+      String key = normalise(query);
+      Entry entry = getCached(key);
+      if (null != entry) {
+        hits.incrementAndGet();
+        results.put(query, entry.result);
+      } else {
+        misses.incrementAndGet();
+        results.put(query, null);
+        missing.putIfAbsent(key, query.trim());
+      }
+    }
+    if (missing.isEmpty()) {
+      return results;
+    }
+    long start = System.nanoTime();
+    Map<String, LocationServiceResult> upstreamResults = upstream.getCitiesFromStrings(missing.values());
+    long elapsed = (System.nanoTime() - start) / missing.size();
+    missing.forEach((key, query) -> record(key, query, upstreamResults.get(query), elapsed));
+    for (Map.Entry<String, LocationServiceResult> result : results.entrySet()) {
+      String query = missing.get(normalise(result.getKey()));
+      if (null != query) {
+        result.setValue(upstreamResults.get(query));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Drop all cached queries (metrics are kept)
+   */
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Get the number of cached queries (including expired ones not evicted yet)
+   *
+   * @return the number of cache entries
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Get the number of lookups answered from the cache
+   *
+   * @return the number of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups not found in the cache (including the ones
+   * collapsed with a concurrent lookup of the same key)
+   *
+   * @return the number of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the ratio of lookups answered from the cache
+   *
+   * @return the hit ratio, between 0 and 1 (0 if nothing has been looked up)
+   */
+  public double getHitRatio() {
+    long lookups = hits.get() + misses.get();
+    return 0 == lookups ? 0 : (double) hits.get() / lookups;
+  }
+
+  /**
+   * Get the number of lookups that waited for a concurrent lookup of the same
+   * key rather than calling the upstream service
+   *
+   * @return the number of collapsed lookups
+   */
+  public long getCollapsedLookups() {
+    return collapsed.get();
+  }
+
+  /**
+   * Get the number of calls made to the upstream service
+   *
+   * @return the number of upstream calls
+   */
+  public long getUpstreamCalls() {
+    return upstreamCalls.get();
+  }
+
+  /**
+   * Get the average duration of the upstream calls
+   *
+   * @return the average upstream latency in milliseconds (0 if never called)
+   */
+  public double getAverageUpstreamLatencyMillis() {
+    long calls = upstreamCalls.get();
+    return 0 == calls ? 0 : upstreamNanos.get() / 1e6 / calls;
+  }
+
+  /**
+   * Get the duration of the slowest upstream call
+   *
+   * @return the maximum upstream latency in milliseconds (0 if never called)
+   */
+  public double getMaxUpstreamLatencyMillis() {
+    return maxUpstreamNanos.get() / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return "{ entries='" + size() + "', hits='" + getHits() + "', misses='" + getMisses() + "', hitRatio='"
+        + String.format("%.2f", getHitRatio()) + "', collapsed='" + getCollapsedLookups() + "', upstreamCalls='"
+        + getUpstreamCalls() + "', avgUpstreamMillis='" + String.format("%.1f", getAverageUpstreamLatencyMillis())
+        + "', maxUpstreamMillis='" + String.format("%.1f", getMaxUpstreamLatencyMillis()) + "' }";
+  }
+
+  /**
+   * Normalise given query into a cache key, i.e. in lower case, with composed
+   * accents and single spaces between words
+   *
+   * @param query a query (not null)
+   * @return the normalised query
+   */
+  static String normalise(String query) {
+    // fast path for plain ASCII queries with single spaces only (i.e. most of them)
+    boolean plain = true;
+    for (int i = 0, length = query.length(); i < length && plain; i++) {
+      char c = query.charAt(i);
+      plain = c < 128 && (c == ' ' ? i > 0 && i < length - 1 && query.charAt(i - 1) != ' '
+          : !Character.isWhitespace(c));
+    }
+    if (plain) {
+      return query.toLowerCase(Locale.ROOT);
+    }
+    return WHITE_SPACES.matcher(Normalizer.normalize(query, Normalizer.Form.NFKC).trim()).replaceAll(" ")
+        .toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Get the (non expired) cache entry for given key, expired entries are evicted
+   *
+   * @param key a normalised query
+   * @return the cache entry, null if there is none or it has expired
+   */
+  private Entry getCached(String key) {
+    synchronized (cache) {
+      Entry entry = cache.get(key);
+      if (null != entry && entry.expiresAt - System.nanoTime() <= 0) {
+        cache.remove(key);
+        entry = null;
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Look given query up with the upstream service and cache its result
+   *
+   * @param key   the normalised query
+   * @param query the query as passed to the upstream service
+   * @return the upstream result (may be null)
+   */
+  private LocationServiceResult callUpstream(String key, String query) {
+    long start = System.nanoTime();
+    LocationServiceResult result = upstream.getCityFromString(query);
+    record(key, query, result, System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Record the latency of an upstream call and cache its result
+   *
+   * @param key     the normalised query
+   * @param query   the query as passed to the upstream service
+   * @param result  the upstream result (may be null)
+   * @param elapsed the duration of the upstream call (in nanoseconds)
+   */
+  private void record(String key, String query, LocationServiceResult result, long elapsed) {
+    upstreamCalls.incrementAndGet();
+    upstreamNanos.addAndGet(elapsed);
+    maxUpstreamNanos.accumulateAndGet(elapsed, Math::max);
+    LOGGER.debug("looked '{}' up in {} ms, found {}", query, elapsed / 1000000, null != result);
+
+    long ttl = null != result ? ttlNanos : negativeTtlNanos;
+    if (ttl > 0) {
+      synchronized (cache) {
+        cache.put(key, new Entry(result, System.nanoTime() + ttl));
+      }
+    }
+  }
+
+  /**
+   * Wait for the result of a concurrent lookup
+   *
+   * @param pending the lookup to wait for
+   * @return its result (may be null)
+   */
+  private LocationServiceResult await(CompletableFuture<LocationServiceResult> pending) {
+    try {
+      return pending.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,540 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package uc.seng301.eventapp.location;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Offline {@link LocationService} looking cities up in a local gazetteer file
+ * rather than calling an external API.
+ *
+ * The gazetteer is a UTF-8 CSV file with one city per line:
+ * <code>name,latitude,longitude[,display name]</code>, where the optional
+ * display name runs until the end of the line (and may thus contain commas,
+ * surrounding double quotes being removed).
+ * Empty lines, lines starting with '#' and lines whose second field does not
+ * start like a number (e.g., a header) are ignored. When several lines have the same name,
+ * the first one wins (e.g., sort the file by decreasing population).
+ *
+ * The file is memory-mapped and only the normalised names (see
+ * {@link CachingLocationService}) are loaded into a sorted array (in the
+ * background, so the service is created right away), along with the offset of
+ * their line in the mapped file. Exact and prefix lookups are
+ * binary searches, the coordinates being read from the mapped file for the
+ * found cities only. Fuzzy lookups (if enabled) walk the sorted names as a
+ * trie: the edit distances of a prefix shared by consecutive names are only
+ * computed once, and all names starting with a prefix that is already too far
+ * from the name looked up are skipped at once. They are still much slower.
+ *
+ * If the file cannot be indexed, lookups fail with a
+ * {@link LocationServiceException}.
+ */
+public class GazetteerLocationService implements LocationService {
+
+  private static final Logger LOGGER = LogManager.getLogger(GazetteerLocationService.class);
+
+  /**
+   * A city read from the gazetteer
+   */
+  private static final class GazetteerResult implements LocationServiceResult {
+    private final String name;
+    private final String latitude;
+    private final String longitude;
+
+    private GazetteerResult(String name, String latitude, String longitude) {
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getLatitude() {
+      return latitude;
+    }
+
+    @Override
+    public String getLongitude() {
+      return longitude;
+    }
+
+    @Override
+    public String toString() {
+      return "{ name='" + name + "', latitude='" + latitude + "', longitude='" + longitude + "' }";
+    }
+  }
+
+  /**
+   * A normalised name with the offset of its line in the mapped file
+   */
+  private static final class IndexedName {
+    private final String name;
+    private final int offset;
+
+    private IndexedName(String name, int offset) {
+      this.name = name;
+      this.offset = offset;
+    }
+  }
+
+  private final Path gazetteer;
+  private final MappedByteBuffer content;
+  private final int maxEditDistance;
+  private final CompletableFuture<Void> indexed;
+  // normalised names in ascending order, and offsets of their line in content
+  // (set by the indexing thread, only read once indexed is completed)
+  private String[] names;
+  private int[] offsets;
+
+  /**
+   * Convenience constructor, without fuzzy lookups
+   *
+   * @param gazetteer the path of the gazetteer file (not null)
+   * @throws IOException              if the file cannot be read
+   * @throws IllegalArgumentException if given path is null
+   */
+  public GazetteerLocationService(Path gazetteer) throws IOException {
+    this(gazetteer, 0);
+  }
+
+  /**
+   * Default constructor, mapping given gazetteer into memory and indexing it in
+   * the background (lookups wait for the index to be ready)
+   *
+   * @param gazetteer       the path of the gazetteer file (not null, less than
+   *                        2GB)
+   * @param maxEditDistance the maximum number of typos (insertions, deletions or
+   *                        substitutions) tolerated when no city has the exact
+   *                        name looked up, 0 to disable fuzzy lookups
+   * @throws IOException              if the file cannot be read or is too large
+   * @throws IllegalArgumentException if given path is null or edit distance is
+   *                                  negative
+   */
+  public GazetteerLocationService(Path gazetteer, int maxEditDistance) throws IOException {
+    if (null == gazetteer || maxEditDistance < 0) {
+      throw new IllegalArgumentException("gazetteer path cannot be null and edit distance '" + maxEditDistance
+          + "' cannot be negative");
+    }
+    this.gazetteer = gazetteer;
+    this.maxEditDistance = maxEditDistance;
+    try (FileChannel channel = FileChannel.open(gazetteer, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("gazetteer " + gazetteer + " is too large (" + channel.size() + " bytes)");
+      }
+      content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    indexed = CompletableFuture.runAsync(this::buildIndex, runnable -> {
+      Thread thread = new Thread(runnable, "gazetteer-index");
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Retrieve the city with given name (case and spaces are ignored) from the
+   * gazetteer. If none is found and the query contains a comma (e.g.,
+   * "Christchurch, New Zealand"), its first part is looked up. If still none is
+   * found, the closest name within the maximum edit distance is looked up (if
+   * fuzzy lookups are enabled).
+   *
+   * @param query a city name (not null)
+   * @return the LocationResult object of a city corresponding to the search
+   *         query, null if none found
+   * @throws IllegalArgumentException if given query is null
+   * @throws LocationServiceException if the gazetteer could not be indexed
+   */
+  @Override
+  public LocationServiceResult getCityFromString(String query) {
+    if (null == query) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    awaitIndex();
+    String key = CachingLocationService.normalise(query);
+    int index = find(key);
+    if (index < 0 && key.indexOf(',') > 0) {
+      key = key.substring(0, key.indexOf(',')).trim();
+      index = find(key);
+    }
+    if (index < 0 && maxEditDistance > 0) {
+      index = findClosest(key);
+    }
+    return index < 0 ? null : readResult(offsets[index]);
+  }
+
+  /**
+   * Retrieve the city with given name from the gazetteer (on the calling thread,
+   * as lookups do not block)
+   *
+   * @param query a city name (not null)
+   * @return a completed future with the LocationResult object of a city
+   *         corresponding to the search query, or with null if none found
+   * @throws IllegalArgumentException if given query is null
+   * @throws LocationServiceException if the gazetteer could not be indexed
+   */
+  @Override
+  public CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    return CompletableFuture.completedFuture(getCityFromString(query));
+  }
+
+  /**
+   * Retrieve the cities whose name starts with given prefix (case and spaces
+   * are ignored), e.g. to suggest city names
+   *
+   * @param prefix     a prefix (not null)
+   * @param maxResults the maximum number of cities to retrieve
+   * @return the (possibly empty) list of cities starting with given prefix, in
+   *         alphabetical order
+   * @throws IllegalArgumentException if given prefix is null
+   * @throws LocationServiceException if the gazetteer could not be indexed
+   */
+  public List<LocationServiceResult> getCitiesStartingWith(String prefix, int maxResults) {
+    if (null == prefix) {
+      throw new IllegalArgumentException("cannot look up a null prefix");
+    }
+    awaitIndex();
+    String key = CachingLocationService.normalise(prefix);
+    List<LocationServiceResult> results = new ArrayList<>();
+    for (int i = lowerBound(key); i < names.length && results.size() < maxResults
+        && names[i].startsWith(key); i++) {
+      // skip the homonyms of the previous city
+      if (i == 0 || !names[i].equals(names[i - 1])) {
+        results.add(readResult(offsets[i]));
+      }
+    }
+    return results.isEmpty() ? Collections.emptyList() : results;
+  }
+
+  /**
+   * Get the number of cities in the gazetteer (waiting for the index to be
+   * built)
+   *
+   * @return the number of indexed lines
+   * @throws LocationServiceException if the gazetteer could not be indexed
+   */
+  public int size() {
+    awaitIndex();
+    return names.length;
+  }
+
+  /**
+   * Index the names of the mapped file (run once, in the background)
+   */
+  private void buildIndex() {
+    long start = System.nanoTime();
+    List<IndexedName> lines = new ArrayList<>();
+    int lineStart = 0;
+    int limit = content.limit();
+    while (lineStart < limit) {
+      int lineEnd = endOfLine(lineStart);
+      String name = readName(lineStart, lineEnd);
+      if (null != name) {
+        lines.add(new IndexedName(CachingLocationService.normalise(name), lineStart));
+      }
+      lineStart = lineEnd + 1;
+    }
+    IndexedName[] sorted = lines.toArray(new IndexedName[0]);
+    // stable sort, so the first line of a name comes first
+    Arrays.sort(sorted, (first, second) -> first.name.compareTo(second.name));
+    String[] sortedNames = new String[sorted.length];
+    int[] sortedOffsets = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      sortedNames[i] = sorted[i].name;
+      sortedOffsets[i] = sorted[i].offset;
+    }
+    names = sortedNames;
+    offsets = sortedOffsets;
+    LOGGER.info("indexed {} cities of {} in {} ms", names.length, gazetteer, (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Wait for the index to be built
+   *
+   * @throws LocationServiceException if the index could not be built
+   */
+  private void awaitIndex() {
+    try {
+      indexed.join();
+    } catch (CompletionException e) {
+      throw new LocationServiceException("unable to index gazetteer " + gazetteer, e.getCause());
+    }
+  }
+
+  /**
+   * Get the index of the first city with given name
+   *
+   * @param key a normalised name
+   * @return the index of the city in names, -1 if not found
+   */
+  private int find(String key) {
+    int index = lowerBound(key);
+    return index < names.length && names[index].equals(key) ? index : -1;
+  }
+
+  /**
+   * Get the index of the first name greater than or equal to given key
+   *
+   * @param key a normalised name (or prefix)
+   * @return an index in names (names.length if all names are lower)
+   */
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = names.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (names[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Get the index of the first city with the closest name to given key, within
+   * the maximum edit distance
+   *
+   * @param key a normalised name
+   * @return the index of the city in names, -1 if none is close enough
+   */
+  private int findClosest(String key) {
+    int closest = -1;
+    int bound = maxEditDistance;
+    // rows[depth][j] is the edit distance between the first depth characters of
+    // the current name and the first j characters of key (names longer than
+    // key.length() + bound are always cut off before reaching the last row)
+    int[][] rows = new int[key.length() + maxEditDistance + 2][key.length() + 1];
+    for (int j = 0; j <= key.length(); j++) {
+      rows[0][j] = j;
+    }
+    String previous = "";
+    int validDepth = 0;
+    int i = 0;
+    while (i < names.length) {
+      String name = names[i];
+      int depth = Math.min(validDepth, commonPrefixLength(previous, name));
+      boolean tooFar = false;
+      while (depth < name.length() && !tooFar) {
+        tooFar = nextRow(rows[depth], rows[depth + 1], depth + 1, name.charAt(depth), key) > bound;
+        depth++;
+      }
+      previous = name;
+      validDepth = depth;
+      if (tooFar) {
+        // no name starting like this one can be close enough
+        i = skipPrefix(i, name.substring(0, depth));
+        continue;
+      }
+      // ties go to the first city, as names are walked in order
+      if (rows[depth][key.length()] <= bound) {
+        closest = i;
+        bound = rows[depth][key.length()] - 1;
+        if (bound < 0) {
+          break;
+        }
+      }
+      i++;
+    }
+    return closest;
+  }
+
+  /**
+   * Compute the next row of the Levenshtein distance matrix
+   *
+   * @param previous  the row of the previous prefix of the name
+   * @param current   the row to fill for the prefix one character longer
+   * @param depth     the length of that longer prefix
+   * @param character the last character of that longer prefix
+   * @param key       the name looked up
+   * @return the minimum of the row, i.e. a lower bound of the distance between
+   *         key and all names starting with that prefix
+   */
+  private static int nextRow(int[] previous, int[] current, int depth, char character, String key) {
+    current[0] = depth;
+    int rowMinimum = depth;
+    for (int j = 1; j <= key.length(); j++) {
+      int substitution = previous[j - 1] + (character == key.charAt(j - 1) ? 0 : 1);
+      current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+      rowMinimum = Math.min(rowMinimum, current[j]);
+    }
+    return rowMinimum;
+  }
+
+  /**
+   * Get the length of the common prefix of two strings
+   *
+   * @param first  a string
+   * @param second another string
+   * @return the number of leading characters both strings have in common
+   */
+  private static int commonPrefixLength(String first, String second) {
+    int length = Math.min(first.length(), second.length());
+    int common = 0;
+    while (common < length && first.charAt(common) == second.charAt(common)) {
+      common++;
+    }
+    return common;
+  }
+
+  /**
+   * Get the index of the first name after given one that does not start with
+   * given prefix (names starting with a prefix are contiguous once sorted)
+   *
+   * @param from   the index of a name starting with given prefix
+   * @param prefix a prefix
+   * @return an index in names (names.length if all next names start with given
+   *         prefix)
+   */
+  private int skipPrefix(int from, String prefix) {
+    int low = from + 1;
+    int high = names.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (names[middle].startsWith(prefix)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Read the city of the line starting at given offset
+   *
+   * @param lineStart the offset of a line indexed at construction
+   * @return the city of that line
+   */
+  private LocationServiceResult readResult(int lineStart) {
+    String[] fields = readFields(lineStart, endOfLine(lineStart));
+    return new GazetteerResult(fields[3], fields[1], fields[2]);
+  }
+
+  /**
+   * Get the offset of the end of the line starting at given offset
+   *
+   * @param lineStart the offset of the beginning of a line
+   * @return the offset of the line feed ending that line (or of the end of the
+   *         file)
+   */
+  private int endOfLine(int lineStart) {
+    int offset = lineStart;
+    while (offset < content.limit() && content.get(offset) != '\n') {
+      offset++;
+    }
+    return offset;
+  }
+
+  /**
+   * Read the name of given line, only checking that the next field looks like a
+   * latitude (i.e. without decoding the whole line, to index the file fast)
+   *
+   * @param lineStart the offset of the beginning of the line
+   * @param lineEnd   the offset of the end of the line (excluded)
+   * @return the name of the city, null if the line is not a city (empty,
+   *         comment or header)
+   */
+  private String readName(int lineStart, int lineEnd) {
+    if (lineEnd == lineStart || content.get(lineStart) == '#') {
+      return null;
+    }
+    int comma = lineStart;
+    while (comma < lineEnd && content.get(comma) != ',') {
+      comma++;
+    }
+    if (comma + 1 >= lineEnd) {
+      return null;
+    }
+    byte latitudeStart = content.get(comma + 1);
+    if (!Character.isDigit(latitudeStart) && latitudeStart != '-' && latitudeStart != '+' && latitudeStart != '.'
+        && latitudeStart != ' ') {
+      return null;
+    }
+    String name = decode(lineStart, comma).trim();
+    return name.isEmpty() ? null : name;
+  }
+
+  /**
+   * Split given line into name, latitude, longitude and display name
+   *
+   * @param lineStart the offset of the beginning of the line
+   * @param lineEnd   the offset of the end of the line (excluded)
+   * @return the fields of the line (display name being the name if not set)
+   */
+  private String[] readFields(int lineStart, int lineEnd) {
+    if (lineEnd > lineStart && content.get(lineEnd - 1) == '\r') {
+      lineEnd--;
+    }
+    String[] fields = decode(lineStart, lineEnd).split(",", 4);
+    String[] result = new String[4];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = i < fields.length ? fields[i].trim() : "";
+    }
+    if (result[3].length() > 1 && result[3].startsWith("\"") && result[3].endsWith("\"")) {
+      result[3] = result[3].substring(1, result[3].length() - 1);
+    }
+    if (result[3].isEmpty()) {
+      result[3] = result[0];
+    }
+    return result;
+  }
+
+  /**
+   * Decode given bytes of the mapped file
+   *
+   * @param from the offset of the first byte
+   * @param to   the offset of the last byte (excluded)
+   * @return the decoded UTF-8 string
+   */
+  private String decode(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    // absolute bulk reads need Java 13, so read from a view of the buffer
+    ByteBuffer view = content.duplicate();
+    view.position(from);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -27,6 +27,12 @@
 
 package uc.seng301.eventapp.location;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This location service will retrieve a geolocalisation details from an
  * external API
@@ -42,4 +48,62 @@ public interface LocationService {
    *         query, null if none found
    */
   LocationServiceResult getCityFromString(String query);
+
+  /**
+   * Retrieve the more plausible city from a query string using an external
+   * location API, without blocking the calling thread.
+   *
+   * By default, the blocking {@link #getCityFromString(String)} is run on the
+   * common fork-join pool, implementations should override this method if they
+   * can do better.
+   *
+   * @param query a query (may be implementation specific)
+   * @return a future completed with the LocationResult object of a city
+   *         corresponding to the search query, or with null if none found
+   */
+  default CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    return CompletableFuture.supplyAsync(() -> getCityFromString(query));
+  }
+
+  /**
+   * Retrieve the more plausible cities from a collection of query strings
+   * (e.g., when importing events in bulk). Duplicate queries are only looked up
+   * once.
+   *
+   * By default, queries are looked up one after the other with
+   * {@link #getCityFromString(String)}, implementations should override this
+   * method if they can do better.
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the LocationResult object of a city by distinct query (in iteration
+   *         order of given collection), mapped to null if none found
+   * @throws IllegalArgumentException if given collection is or contains null
+   */
+  default Map<String, LocationServiceResult> getCitiesFromStrings(Collection<String> queries) {
+    Map<String, LocationServiceResult> results = new LinkedHashMap<>();
+    for (String query : distinctQueries(queries)) {
+      results.put(query, getCityFromString(query));
+    }
+    return results;
+  }
+
+  /**
+   * Deduplicate given queries (for implementations of
+   * {@link #getCitiesFromStrings(Collection)})
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the distinct queries, in iteration order of given collection
+   * @throws IllegalArgumentException if given collection is or contains null
+   */
+  static LinkedHashSet<String> distinctQueries(Collection<String> queries) {
+    if (null == queries) {
+      throw new IllegalArgumentException("cannot look up a null collection of locations");
+    }
+    LinkedHashSet<String> distinct = new LinkedHashSet<>(queries);
+    // not queries.contains(null), immutable collections reject it
+    if (distinct.contains(null)) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    return distinct;
+  }
 }
@@ -27,27 +27,91 @@
 package uc.seng301.eventapp.location;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * This class handles call to the MapQuest REST API
+ * This class handles call to the MapQuest REST API.
+ *
+ * Requests are sent through a single {@link HttpClient} (per instance), so
+ * connections are kept alive and reused across lookups, and many lookups may be
+ * in flight at once (see {@link #getCityFromStringAsync(String)}). All
+ * instances share the same pool of daemon threads.
+ *
+ * Responses are parsed as they are received (see
+ * {@link #readFirstCity(JsonParser)}): only the fields of the
+ * {@link LocationServiceResult} interface are read, and parsing stops at the
+ * first city.
+ *
+ * Batch lookups (see {@link #getCitiesFromStrings(Collection)}) run in
+ * parallel, within a limit of concurrent requests and of requests per second
+ * shared by all batches of this instance (see
+ * {@link #setBatchLimits(int, double)}).
+ *
+ * Errors (e.g., unreachable API, timeouts, unexpected responses) are not
+ * swallowed but surfaced as {@link LocationServiceException}s, so callers (e.g.,
+ * a {@link ResilientLocationService}) can tell them from unknown locations.
  */
 public class NominatimQuery implements LocationService {
 
+  /**
+   * Default maximum time to establish a connection
+   */
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * Default maximum time to receive a response once the request is sent
+   */
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Default maximum number of requests in flight for batch lookups
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+  /**
+   * Default maximum number of requests per second for batch lookups (the
+   * Nominatim usage policy asks for one request per second at most)
+   */
+  public static final double DEFAULT_REQUESTS_PER_SECOND = 1.0;
+
   private static final Logger LOGGER = LogManager.getLogger(NominatimQuery.class);
 
-  private final ObjectMapper objectMapper = new ObjectMapper();
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  /**
+   * Threads sending the requests and parsing the responses (reading blocks until
+   * received), shared by all instances. Idle threads are discarded after a
+   * minute and never prevent the app from exiting.
+   */
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "nominatim-query");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   private static final String MAPQUEST_SEARCH = "http://open.mapquestapi.com/nominatim/v1/search.php";
 
@@ -58,6 +122,74 @@ public class NominatimQuery implements LocationService {
   // see https://developer.mapquest.com/documentation/open/nominatim-search/
   private static final String MAPQUEST_KEY = "ipOy58aqmtKrnTGmjASL0OfEhYC2YYBX";
 
+  private final String searchUrl;
+  private final Duration requestTimeout;
+  private final HttpClient httpClient;
+  private volatile Semaphore batchPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_REQUESTS);
+  private volatile RateLimiter batchRateLimiter = RateLimiter.create(DEFAULT_REQUESTS_PER_SECOND);
+
+  /**
+   * Default constructor, querying the MapQuest Nominatim API
+   */
+  public NominatimQuery() {
+    this(MAPQUEST_SEARCH);
+  }
+
+  /**
+   * Constructor querying a Nominatim-compliant search endpoint at given URL
+   * (e.g., a local stub server in tests), with default timeouts
+   *
+   * @param searchUrl the URL of the search endpoint, without any parameter (not
+   *                  null)
+   * @throws IllegalArgumentException if given URL is null
+   */
+  public NominatimQuery(String searchUrl) {
+    this(searchUrl, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * Constructor querying a Nominatim-compliant search endpoint at given URL with
+   * given timeouts
+   *
+   * @param searchUrl      the URL of the search endpoint, without any parameter
+   *                       (not null)
+   * @param connectTimeout the maximum time to establish a connection (not null)
+   * @param requestTimeout the maximum time to receive a response once the
+   *                       request is sent (not null)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public NominatimQuery(String searchUrl, Duration connectTimeout, Duration requestTimeout) {
+    if (null == searchUrl || null == connectTimeout || null == requestTimeout) {
+      throw new IllegalArgumentException("search URL and timeouts cannot be null");
+    }
+    this.searchUrl = searchUrl;
+    this.requestTimeout = requestTimeout;
+    httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).followRedirects(HttpClient.Redirect.NORMAL)
+        .executor(EXECUTOR).build();
+  }
+
+  /**
+   * Set the limits applied to batch lookups, shared by all batches of this
+   * instance (batches running while this method is called keep the previous
+   * limits)
+   *
+   * @param maxConcurrentRequests the maximum number of requests in flight
+   *                              (strictly positive)
+   * @param requestsPerSecond     the maximum number of requests sent per second
+   *                              (strictly positive)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public void setBatchLimits(int maxConcurrentRequests, double requestsPerSecond) {
+    if (maxConcurrentRequests <= 0 || !(requestsPerSecond > 0)) {
+      throw new IllegalArgumentException("max concurrent requests '" + maxConcurrentRequests
+          + "' and requests per second '" + requestsPerSecond + "' must be strictly positive");
+    }
+    batchPermits = new Semaphore(maxConcurrentRequests);
+    batchRateLimiter = RateLimiter.create(requestsPerSecond);
+  }
+
   /**
    * Retrieve the first plausible city from a query string using the mapquest
    * Nominatim API.
@@ -67,58 +199,176 @@ public class NominatimQuery implements LocationService {
    * @param query a query
    * @return the NominatimResult object of a city corresponding to the search
    *         query, null if none found
+   * @throws LocationServiceException if the API could not be queried
    */
   @Override
   public NominatimResult getCityFromString(String query) {
-    List<NominatimResult> rawResults = retrieveLocations(query);
-    return rawResults.stream().filter(n -> "city".equals(n.getLocationType())).findFirst().orElse(null);
+    // lookups only ever complete with NominatimResults
+    return (NominatimResult) join(findCity(query));
   }
 
   /**
-   * Call the external REST API from Mapquest to retrieve a location from a given
-   * string
+   * Retrieve the first plausible city from a query string using the mapquest
+   * Nominatim API, without blocking the calling thread.
    *
-   * @param query a location to look for
-   * @return the list of NominatimResult corresponding to given search query, an
-   *         empty list if none are retrieved
+   * @param query a query
+   * @return a future completed with the NominatimResult object of a city
+   *         corresponding to the search query (or with null if none found), or
+   *         completed exceptionally with a {@link LocationServiceException} if
+   *         the API could not be queried
    */
-  private List<NominatimResult> retrieveLocations(String query) {
-    List<NominatimResult> results = null;
-    try {
-      URL url = new URL(MAPQUEST_SEARCH + "?key=" + MAPQUEST_KEY + "&format=json&q=" + query);
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-      connection.setRequestMethod("GET");
-      connection.connect();
+  @Override
+  public CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    return findCity(query);
+  }
 
-      int responseCode = connection.getResponseCode();
+  /**
+   * Retrieve the first plausible cities from a collection of query strings
+   * using the mapquest Nominatim API. Distinct queries are sent in parallel,
+   * within the batch limits (see {@link #setBatchLimits(int, double)}), the
+   * calling thread being blocked until all results are received.
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the NominatimResult object of a city by distinct query (in
+   *         iteration order of given collection), mapped to null if none found
+   * @throws IllegalArgumentException if given collection is or contains null
+   * @throws LocationServiceException if the API could not be queried for any of
+   *                                  the queries
+   */
+  @Override
+  public Map<String, LocationServiceResult> getCitiesFromStrings(Collection<String> queries) {
+    Semaphore permits = batchPermits;
+    RateLimiter rateLimiter = batchRateLimiter;
+    Map<String, CompletableFuture<LocationServiceResult>> lookups = new LinkedHashMap<>();
+    for (String query : LocationService.distinctQueries(queries)) {
+      permits.acquireUninterruptibly();
+      rateLimiter.acquire();
+      lookups.put(query, findCity(query).whenComplete((city, error) -> permits.release()));
+    }
+    Map<String, LocationServiceResult> results = new LinkedHashMap<>();
+    lookups.forEach((query, lookup) -> results.put(query, join(lookup)));
+    LOGGER.debug("looked {} distinct locations up", results.size());
+    return results;
+  }
 
-      if (responseCode != 200) {
-        LOGGER.error("unable to process request to MapRequest, response code is '{}'", responseCode);
-        return Collections.emptyList();
+  /**
+   * Call the external REST API from Mapquest to retrieve the first plausible
+   * city from a given string (a single request, on a reused connection if any)
+   *
+   * @param query a location to look for
+   * @return a future completed with the NominatimResult object of a city (or
+   *         with null if none found), or completed exceptionally with a
+   *         {@link LocationServiceException} if an error occurred
+   */
+  private CompletableFuture<LocationServiceResult> findCity(String query) {
+    // URLEncoder is meant for forms, i.e. encodes spaces as '+'
+    String encodedQuery = URLEncoder.encode(String.valueOf(query), StandardCharsets.UTF_8).replace("+", "%20");
+    HttpRequest request;
+    try {
+      request = HttpRequest.newBuilder(URI.create(searchUrl + "?key=" + MAPQUEST_KEY + "&format=json&q=" + encodedQuery))
+          .timeout(requestTimeout).header("Accept", "application/json").GET().build();
+    } catch (IllegalArgumentException e) {
+      return CompletableFuture.failedFuture(new LocationServiceException("invalid search URL '" + searchUrl + "'", e));
+    }
+    CompletableFuture<HttpResponse<InputStream>> exchange = httpClient.sendAsync(request,
+        HttpResponse.BodyHandlers.ofInputStream());
+    CompletableFuture<LocationServiceResult> lookup = exchange.<LocationServiceResult>thenApplyAsync(response -> {
+      try (InputStream body = response.body()) {
+        if (response.statusCode() != 200) {
+          throw new LocationServiceException(
+              "unable to process request to MapRequest, response code is '" + response.statusCode() + "'");
+        }
+        NominatimResult city;
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+          // the body is drained below, so the connection can be reused
+          parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+          city = readFirstCity(parser);
+        }
+        body.transferTo(OutputStream.nullOutputStream());
+        LOGGER.debug(city);
+        return city;
+      } catch (IOException e) {
+        throw new LocationServiceException("error processing the response", e);
+      }
+    }, EXECUTOR).exceptionally(e -> {
+      Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+      if (cause instanceof LocationServiceException) {
+        throw (LocationServiceException) cause;
       }
+      // e.g., connection refused or request timed out
+      throw new LocationServiceException("error processing the request '" + query + "'", cause);
+    });
+    // cancelling the lookup (e.g., when the caller gives up) aborts the request
+    lookup.whenComplete((city, error) -> {
+      if (lookup.isCancelled()) {
+        exchange.cancel(true);
+      }
+    });
+    return lookup;
+  }
 
-      Scanner scanner = new Scanner(url.openStream());
-      StringBuilder stringResult = new StringBuilder();
-      while (scanner.hasNext()) {
-        stringResult.append(scanner.nextLine());
+  /**
+   * Wait for given lookup to complete, surfacing its error as is
+   *
+   * @param lookup a lookup started by {@link #findCity(String)}
+   * @return the result of the lookup
+   * @throws LocationServiceException if the lookup failed
+   */
+  private static LocationServiceResult join(CompletableFuture<LocationServiceResult> lookup) {
+    try {
+      return lookup.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof LocationServiceException) {
+        throw (LocationServiceException) e.getCause();
       }
-      scanner.close();
-      results = convertToNominatimResult(stringResult.toString());
-      LOGGER.debug(results);
-    } catch (IOException e) {
-      LOGGER.error("error processing the request", e);
+      throw new LocationServiceException("error processing the request", e.getCause());
     }
-    return null == results ? Collections.emptyList() : results;
   }
 
   /**
-   * Convert given json string into a list of NominatimResult
+   * Read a json array of Nominatim results up to the first city. Only the name,
+   * coordinates and type of the results are read, all other fields (e.g.,
+   * bounding boxes) are skipped without being materialised.
    *
-   * @param jsonString a json string complying to the NominatimResult
-   * @return the converted json into a list of NominatimResult
-   * @throws JsonProcessingException if the deserialisation resulted in an error
+   * @param parser a parser positioned before the json array
+   * @return the first city found (with only name, coordinates and type set), null
+   *         if none found
+   * @throws IOException if the content is not a json array of objects
    */
-  private List<NominatimResult> convertToNominatimResult(String jsonString) throws JsonProcessingException {
-    return Arrays.asList(objectMapper.readValue(jsonString, NominatimResult[].class));
+  static NominatimResult readFirstCity(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      throw new IOException("expected a json array of results, got " + parser.currentToken());
+    }
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      String displayName = null;
+      String latitude = null;
+      String longitude = null;
+      String locationType = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        switch (field) {
+        case "display_name":
+          displayName = parser.getValueAsString();
+          break;
+        case "lat":
+          latitude = parser.getValueAsString();
+          break;
+        case "lon":
+          longitude = parser.getValueAsString();
+          break;
+        case "type":
+          locationType = parser.getValueAsString();
+          break;
+        default:
+          // no-op for scalar values
+          parser.skipChildren();
+        }
+      }
+      if ("city".equals(locationType)) {
+        return new NominatimResult(displayName, latitude, longitude, locationType);
+      }
+    }
+    return null;
   }
 }
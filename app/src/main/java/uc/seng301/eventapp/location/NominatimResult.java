@@ -87,6 +87,29 @@ public class NominatimResult implements LocationServiceResult {
   @JsonDeserialize
   private String icon;
 
+  /**
+   * Default constructor (used by the Jackson engine and for mocking purpose)
+   */
+  public NominatimResult() {
+    // all fields are populated by Jackson or setters
+  }
+
+  /**
+   * Constructor used by the streaming parser of {@link NominatimQuery}, that only
+   * reads the fields needed by the {@link LocationServiceResult} interface
+   *
+   * @param displayName  the display name
+   * @param latitude     the latitude
+   * @param longitude    the longitude
+   * @param locationType the type of location (e.g., "city")
+   */
+  NominatimResult(String displayName, String latitude, String longitude, String locationType) {
+    this.displayName = displayName;
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.locationType = locationType;
+  }
+
   public String getPlaceID() {
     return this.placeID;
   }
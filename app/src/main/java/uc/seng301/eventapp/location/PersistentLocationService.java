@@ -0,0 +1,408 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package uc.seng301.eventapp.location;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Disk-backed decorator of a {@link LocationService}: the results of the
+ * decorated (upstream) service are stored in a dedicated SQLite file, keyed by
+ * normalised query (see {@link CachingLocationService}), so they survive
+ * restarts (the application database is recreated on every start).
+ *
+ * The file is only read on first lookup, all non-expired entries are then kept
+ * in memory, so a warm restart resolves known queries without any network
+ * traffic. Expired entries are ignored and periodically deleted from the file
+ * by a background (daemon) thread.
+ *
+ * This service does not collapse concurrent lookups, wrap it into a
+ * {@link CachingLocationService} for that purpose.
+ */
+public class PersistentLocationService implements LocationService, AutoCloseable {
+
+  /**
+   * Default delay between two deletions of expired entries (in milliseconds)
+   */
+  public static final long DEFAULT_EXPIRY_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static final Logger LOGGER = LogManager.getLogger(PersistentLocationService.class);
+
+  /**
+   * A stored result with its expiry time (as epoch milliseconds, i.e. valid
+   * across restarts)
+   */
+  private static final class StoredResult implements LocationServiceResult {
+    private final String name;
+    private final String latitude;
+    private final String longitude;
+    private final boolean found;
+    private final long expiresAt;
+
+    private StoredResult(String name, String latitude, String longitude, boolean found, long expiresAt) {
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.found = found;
+      this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getLatitude() {
+      return latitude;
+    }
+
+    @Override
+    public String getLongitude() {
+      return longitude;
+    }
+  }
+
+  private final LocationService upstream;
+  private final String path;
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  private final long expiryIntervalMillis;
+
+  private volatile Map<String, StoredResult> entries;
+  private Connection connection;
+  private ScheduledExecutorService expiry;
+
+  /**
+   * Convenience constructor with default times to live and expiry interval
+   *
+   * @param upstream the location service to store the results of (not null)
+   * @param path     the path of the SQLite file (not null, created if needed)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public PersistentLocationService(LocationService upstream, String path) {
+    this(upstream, path, CachingLocationService.DEFAULT_TTL_MILLIS, CachingLocationService.DEFAULT_NEGATIVE_TTL_MILLIS,
+        DEFAULT_EXPIRY_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Default constructor. The file is not accessed until the first lookup.
+   *
+   * @param upstream             the location service to store the results of
+   *                             (not null)
+   * @param path                 the path of the SQLite file (not null, created
+   *                             if needed)
+   * @param ttlMillis            the time to live of found cities (in
+   *                             milliseconds, strictly positive)
+   * @param negativeTtlMillis    the time to live of queries without any city (in
+   *                             milliseconds, 0 to not store them)
+   * @param expiryIntervalMillis the delay between two deletions of expired
+   *                             entries (in milliseconds, strictly positive)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public PersistentLocationService(LocationService upstream, String path, long ttlMillis, long negativeTtlMillis,
+      long expiryIntervalMillis) {
+    if (null == upstream || null == path) {
+      throw new IllegalArgumentException("upstream location service and path cannot be null");
+    }
+    if (ttlMillis <= 0 || negativeTtlMillis < 0 || expiryIntervalMillis <= 0) {
+      throw new IllegalArgumentException("ttl '" + ttlMillis + "', negative ttl '" + negativeTtlMillis
+          + "' and expiry interval '" + expiryIntervalMillis + "' must be positive");
+    }
+    this.upstream = upstream;
+    this.path = path;
+    this.ttlMillis = ttlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+    this.expiryIntervalMillis = expiryIntervalMillis;
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string, from the file if that
+   * query (once normalised) has been stored and is not expired, from the
+   * upstream location service otherwise (and store its result).
+   *
+   * @param query a query (not null)
+   * @return the LocationResult object of a city corresponding to the search
+   *         query, null if none found
+   * @throws IllegalArgumentException if given query is null
+   */
+  @Override
+  public LocationServiceResult getCityFromString(String query) {
+    if (null == query) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    String key = CachingLocationService.normalise(query);
+    StoredResult stored = getStored(key);
+    if (null != stored) {
+      return stored.found ? stored : null;
+    }
+    LocationServiceResult result = upstream.getCityFromString(query.trim());
+    store(key, result);
+    return result;
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string without blocking the
+   * calling thread, from the file if that query (once normalised) has been
+   * stored and is not expired, from the upstream location service otherwise
+   * (and store its result).
+   *
+   * Note that the file is read on the calling thread on first lookup.
+   *
+   * @param query a query (not null)
+   * @return a future completed with the LocationResult object of a city
+   *         corresponding to the search query, or with null if none found
+   * @throws IllegalArgumentException if given query is null
+   */
+  @Override
+  public CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    if (null == query) {
+      throw new IllegalArgumentException("cannot look up a null location");
+    }
+    String key = CachingLocationService.normalise(query);
+    StoredResult stored = getStored(key);
+    if (null != stored) {
+      return CompletableFuture.completedFuture(stored.found ? stored : null);
+    }
+    return upstream.getCityFromStringAsync(query.trim()).thenApply(result -> {
+      store(key, result);
+      return result;
+    });
+  }
+
+  /**
+   * Retrieve the more plausible cities from a collection of query strings, from
+   * the file for the queries (once normalised) that have been stored and are
+   * not expired, from the upstream location service (in a single batch) for the
+   * others (and store their results). Queries normalised into the same key are
+   * only sent once.
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the LocationResult object of a city by distinct query (in iteration
+   *         order of given collection), mapped to null if none found
+   * @throws IllegalArgumentException if given collection is or contains null
+   */
+  @Override
+  public Map<String, LocationServiceResult> getCitiesFromStrings(Collection<String> queries) {
+    Map<String, LocationServiceResult> results = new LinkedHashMap<>();
+    // query to send upstream by key of the queries not stored yet
+    Map<String, String> missing = new LinkedHashMap<>();
+    for (String query : LocationService.distinctQueries(queries)) {
+      String key = CachingLocationService.normalise(query);
+      StoredResult stored = getStored(key);
+      if (null != stored) {
+        results.put(query, stored.found ? stored : null);
+      } else {
+        results.put(query, null);
+        missing.putIfAbsent(key, query.trim());
+      }
+    }
+    if (missing.isEmpty()) {
+      return results;
+    }
+    Map<String, LocationServiceResult> upstreamResults = upstream.getCitiesFromStrings(missing.values());
+    missing.forEach((key, query) -> store(key, upstreamResults.get(query)));
+    for (Map.Entry<String, LocationServiceResult> result : results.entrySet()) {
+      String query = missing.get(CachingLocationService.normalise(result.getKey()));
+      if (null != query) {
+        result.setValue(upstreamResults.get(query));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Get the number of stored queries (loading the file if needed)
+   *
+   * @return the number of entries, including expired ones not deleted yet
+   */
+  public int size() {
+    return load().size();
+  }
+
+  /**
+   * Delete the expired entries, from memory and from the file (also done
+   * periodically in the background)
+   *
+   * @return the number of entries deleted from the file
+   */
+  public int deleteExpired() {
+    long now = System.currentTimeMillis();
+    load().values().removeIf(stored -> stored.expiresAt <= now);
+    synchronized (this) {
+      if (null == connection) {
+        return 0;
+      }
+      try (PreparedStatement statement = connection
+          .prepareStatement("delete from geocode_cache where expires_at <= ?")) {
+        statement.setLong(1, now);
+        int deleted = statement.executeUpdate();
+        LOGGER.debug("deleted {} expired geocode entries", deleted);
+        return deleted;
+      } catch (SQLException e) {
+        LOGGER.error("unable to delete expired geocode entries from {}", path, e);
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Stop the background expiry and close the file. The file is opened again on
+   * next lookup.
+   */
+  @Override
+  public synchronized void close() {
+    if (null != expiry) {
+      expiry.shutdownNow();
+      expiry = null;
+    }
+    if (null != connection) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOGGER.error("unable to close geocode cache {}", path, e);
+      }
+      connection = null;
+    }
+    entries = null;
+  }
+
+  /**
+   * Get the in-memory entries, reading the file on first access and starting
+   * the background expiry. If the file cannot be read, the entries only live in
+   * memory.
+   *
+   * @return the entries, by normalised query
+   */
+  private Map<String, StoredResult> load() {
+    Map<String, StoredResult> loaded = entries;
+    if (null != loaded) {
+      return loaded;
+    }
+    synchronized (this) {
+      if (null != entries) {
+        return entries;
+      }
+      loaded = new ConcurrentHashMap<>();
+      long now = System.currentTimeMillis();
+      try {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("pragma journal_mode=WAL");
+          statement.execute("create table if not exists geocode_cache (query text primary key, name text, "
+              + "latitude text, longitude text, found integer not null, expires_at integer not null) without rowid");
+          try (ResultSet rows = statement.executeQuery(
+              "select query, name, latitude, longitude, found, expires_at from geocode_cache where expires_at > "
+                  + now)) {
+            while (rows.next()) {
+              loaded.put(rows.getString(1), new StoredResult(rows.getString(2), rows.getString(3), rows.getString(4),
+                  rows.getBoolean(5), rows.getLong(6)));
+            }
+          }
+        }
+        LOGGER.info("loaded {} geocode entries from {}", loaded.size(), path);
+      } catch (SQLException e) {
+        LOGGER.error("unable to read geocode cache {}, entries will not be persisted", path, e);
+        close();
+      }
+      expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "geocode-cache-expiry");
+        thread.setDaemon(true);
+        return thread;
+      });
+      expiry.scheduleWithFixedDelay(this::deleteExpired, expiryIntervalMillis, expiryIntervalMillis,
+          TimeUnit.MILLISECONDS);
+      entries = loaded;
+      return loaded;
+    }
+  }
+
+  /**
+   * Get the (non expired) stored result for given key
+   *
+   * @param key a normalised query
+   * @return the stored result, null if there is none or it has expired
+   */
+  private StoredResult getStored(String key) {
+    StoredResult stored = load().get(key);
+    return null != stored && stored.expiresAt > System.currentTimeMillis() ? stored : null;
+  }
+
+  /**
+   * Keep given upstream result in memory and write it to the file (unless its
+   * time to live is 0)
+   *
+   * @param key    the normalised query
+   * @param result the upstream result (may be null)
+   */
+  private void store(String key, LocationServiceResult result) {
+    long ttl = null != result ? ttlMillis : negativeTtlMillis;
+    if (ttl <= 0) {
+      return;
+    }
+    StoredResult stored = null != result
+        ? new StoredResult(result.getName(), result.getLatitude(), result.getLongitude(), true,
+            System.currentTimeMillis() + ttl)
+        : new StoredResult(null, null, null, false, System.currentTimeMillis() + ttl);
+    load().put(key, stored);
+    synchronized (this) {
+      if (null == connection) {
+        return;
+      }
+      try (PreparedStatement statement = connection.prepareStatement(
+          "insert or replace into geocode_cache (query, name, latitude, longitude, found, expires_at) "
+              + "values (?, ?, ?, ?, ?, ?)")) {
+        statement.setString(1, key);
+        statement.setString(2, stored.name);
+        statement.setString(3, stored.latitude);
+        statement.setString(4, stored.longitude);
+        statement.setBoolean(5, stored.found);
+        statement.setLong(6, stored.expiresAt);
+        statement.executeUpdate();
+      } catch (SQLException e) {
+        LOGGER.error("unable to store geocode entry for '{}' in {}", key, path, e);
+      }
+    }
+  }
+}
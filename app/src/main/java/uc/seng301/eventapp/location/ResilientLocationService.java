@@ -0,0 +1,480 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package uc.seng301.eventapp.location;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resilience decorator of a {@link LocationService} (usually calling an
+ * external API):
+ * <ul>
+ * <li>every attempt is bounded by a timeout, so callers never hang;</li>
+ * <li>failed attempts (i.e. timeouts or exceptions other than
+ * {@link IllegalArgumentException}) are retried a bounded number of times,
+ * after an exponential backoff with full jitter;</li>
+ * <li>a circuit breaker opens after a number of consecutive failures: calls
+ * then fail fast, without calling the decorated service, until a cool-down
+ * elapses and a single trial call succeeds.</li>
+ * </ul>
+ *
+ * When this service gives up (circuit open or no attempt left), it throws a
+ * {@link LocationServiceException}: callers should fall back to a location
+ * without coordinates (e.g., <code>new Location(locationString)</code>), and
+ * caching layers above this service do not cache such failures.
+ */
+public class ResilientLocationService implements LocationService {
+
+  /**
+   * States of the circuit breaker
+   */
+  public enum CircuitState {
+    /**
+     * Calls go through
+     */
+    CLOSED,
+    /**
+     * Calls fail fast
+     */
+    OPEN,
+    /**
+     * A single trial call goes through, others fail fast
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * Default maximum duration of an attempt
+   */
+  public static final Duration DEFAULT_ATTEMPT_TIMEOUT = Duration.ofSeconds(15);
+
+  /**
+   * Default maximum number of attempts per call (first one included)
+   */
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  /**
+   * Default backoff before the first retry (doubled for every next retry)
+   */
+  public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(200);
+
+  /**
+   * Default maximum backoff between two attempts
+   */
+  public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(2);
+
+  /**
+   * Default number of consecutive failures opening the circuit
+   */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+  /**
+   * Default time the circuit stays open before a trial call
+   */
+  public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+  private static final Logger LOGGER = LogManager.getLogger(ResilientLocationService.class);
+
+  private static final ScheduledExecutorService RETRY_SCHEDULER = Executors
+      .newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "location-retry");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final LocationService delegate;
+  private final long attemptTimeoutMillis;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final int failureThreshold;
+  private final long openDurationNanos;
+
+  // circuit breaker state, guarded by this
+  private CircuitState state = CircuitState.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt;
+  private boolean trialInFlight = false;
+  private final Map<CircuitState, Long> transitions = new EnumMap<>(CircuitState.class);
+
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  /**
+   * Convenience constructor with default policy
+   *
+   * @param delegate the location service to call (not null)
+   * @throws IllegalArgumentException if given delegate is null
+   */
+  public ResilientLocationService(LocationService delegate) {
+    this(delegate, DEFAULT_ATTEMPT_TIMEOUT, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF,
+        DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+  }
+
+  /**
+   * Default constructor.
+   *
+   * @param delegate         the location service to call (not null)
+   * @param attemptTimeout   the maximum duration of an attempt (not null,
+   *                         strictly positive)
+   * @param maxAttempts      the maximum number of attempts per call, first one
+   *                         included (strictly positive)
+   * @param initialBackoff   the maximum backoff before the first retry, doubled
+   *                         for every next retry (not null)
+   * @param maxBackoff       the maximum backoff between two attempts (not null)
+   * @param failureThreshold the number of consecutive failures opening the
+   *                         circuit (strictly positive)
+   * @param openDuration     the time the circuit stays open before a trial call
+   *                         (not null)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public ResilientLocationService(LocationService delegate, Duration attemptTimeout, int maxAttempts,
+      Duration initialBackoff, Duration maxBackoff, int failureThreshold, Duration openDuration) {
+    if (null == delegate || null == attemptTimeout || null == initialBackoff || null == maxBackoff
+        || null == openDuration) {
+      throw new IllegalArgumentException("delegate location service and durations cannot be null");
+    }
+    if (attemptTimeout.isNegative() || attemptTimeout.isZero() || maxAttempts <= 0 || failureThreshold <= 0) {
+      throw new IllegalArgumentException("attempt timeout '" + attemptTimeout + "', max attempts '" + maxAttempts
+          + "' and failure threshold '" + failureThreshold + "' must be strictly positive");
+    }
+    this.delegate = delegate;
+    this.attemptTimeoutMillis = attemptTimeout.toMillis();
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoff.toMillis();
+    this.maxBackoffMillis = maxBackoff.toMillis();
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = openDuration.toNanos();
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string with the decorated
+   * service, within the timeout, retry and circuit breaker policy
+   *
+   * @param query a query (may be implementation specific)
+   * @return the LocationResult object of a city corresponding to the search
+   *         query, null if none found
+   * @throws LocationServiceException if the circuit is open or all attempts
+   *                                  failed
+   */
+  @Override
+  public LocationServiceResult getCityFromString(String query) {
+    try {
+      return getCityFromStringAsync(query).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieve the more plausible city from a query string with the decorated
+   * service, within the timeout, retry and circuit breaker policy, without
+   * blocking the calling thread (retries are scheduled)
+   *
+   * @param query a query (may be implementation specific)
+   * @return a future completed with the LocationResult object of a city
+   *         corresponding to the search query (or null if none found), or
+   *         completed exceptionally with a {@link LocationServiceException} if
+   *         the circuit is open or all attempts failed
+   */
+  @Override
+  public CompletableFuture<LocationServiceResult> getCityFromStringAsync(String query) {
+    CompletableFuture<LocationServiceResult> result = new CompletableFuture<>();
+    attempt(query, 1, result);
+    return result;
+  }
+
+  /**
+   * Retrieve the more plausible cities from a collection of query strings with
+   * the decorated service (in a single batch), within the retry and circuit
+   * breaker policy. Batches are not bounded by the attempt timeout, as they may
+   * be throttled, and are retried as a whole.
+   *
+   * @param queries the queries (not null, nor containing null)
+   * @return the LocationResult object of a city by distinct query (in iteration
+   *         order of given collection), mapped to null if none found
+   * @throws IllegalArgumentException if given collection is or contains null
+   * @throws LocationServiceException if the circuit is open or all attempts
+   *                                  failed
+   */
+  @Override
+  public Map<String, LocationServiceResult> getCitiesFromStrings(Collection<String> queries) {
+    LocationService.distinctQueries(queries);
+    for (int attempt = 1;; attempt++) {
+      checkCircuit();
+      try {
+        Map<String, LocationServiceResult> results = delegate.getCitiesFromStrings(queries);
+        onSuccess();
+        return results;
+      } catch (IllegalArgumentException e) {
+        releaseTrial();
+        throw e;
+      } catch (RuntimeException e) {
+        onFailure(e);
+        if (attempt >= maxAttempts) {
+          throw new LocationServiceException("unable to look " + queries.size() + " locations up after " + attempt
+              + " attempt(s)", e);
+        }
+      }
+      retries.incrementAndGet();
+      try {
+        Thread.sleep(backoffMillis(attempt));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new LocationServiceException("interrupted while looking locations up", e);
+      }
+    }
+  }
+
+  /**
+   * Get the current state of the circuit breaker
+   *
+   * @return the circuit state
+   */
+  public synchronized CircuitState getCircuitState() {
+    return state;
+  }
+
+  /**
+   * Get the number of times the circuit breaker moved to given state
+   *
+   * @param target a circuit state
+   * @return the number of transitions to that state
+   */
+  public synchronized long getTransitionsTo(CircuitState target) {
+    return transitions.getOrDefault(target, 0L);
+  }
+
+  /**
+   * Get the number of successful attempts
+   *
+   * @return the number of successes
+   */
+  public long getSuccesses() {
+    return successes.get();
+  }
+
+  /**
+   * Get the number of failed attempts (including timeouts)
+   *
+   * @return the number of failures
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Get the number of attempts that timed out
+   *
+   * @return the number of timeouts
+   */
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  /**
+   * Get the number of retried attempts
+   *
+   * @return the number of retries
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * Get the number of calls that failed fast because of the circuit breaker
+   *
+   * @return the number of rejected calls
+   */
+  public long getRejections() {
+    return rejections.get();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "{ state='" + state + "', opened='" + getTransitionsTo(CircuitState.OPEN) + "', halfOpened='"
+        + getTransitionsTo(CircuitState.HALF_OPEN) + "', closed='" + getTransitionsTo(CircuitState.CLOSED)
+        + "', successes='" + getSuccesses() + "', failures='" + getFailures() + "', timeouts='" + getTimeouts()
+        + "', retries='" + getRetries() + "', rejections='" + getRejections() + "' }";
+  }
+
+  /**
+   * Make an attempt to look given query up, and schedule the next one if it
+   * fails (and attempts are left)
+   *
+   * @param query   the query to look up
+   * @param attempt the number of this attempt (starting at 1)
+   * @param result  the future to complete with the outcome of the call
+   */
+  private void attempt(String query, int attempt, CompletableFuture<LocationServiceResult> result) {
+    try {
+      checkCircuit();
+    } catch (LocationServiceException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    CompletableFuture<LocationServiceResult> lookup;
+    try {
+      lookup = delegate.getCityFromStringAsync(query);
+    } catch (RuntimeException e) {
+      lookup = CompletableFuture.failedFuture(e);
+    }
+    CompletableFuture<LocationServiceResult> delegateLookup = lookup;
+    // the copy times out, so the delegate's lookup can still be cancelled below
+    lookup.copy().orTimeout(attemptTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((city, error) -> {
+      if (null == error) {
+        onSuccess();
+        result.complete(city);
+        return;
+      }
+      Throwable cause = error instanceof CompletionException && null != error.getCause() ? error.getCause() : error;
+      if (cause instanceof TimeoutException) {
+        // otherwise the delegate keeps working on it (e.g., waits for a response)
+        delegateLookup.cancel(true);
+      }
+      if (cause instanceof IllegalArgumentException) {
+        releaseTrial();
+        result.completeExceptionally(cause);
+        return;
+      }
+      onFailure(cause);
+      if (attempt >= maxAttempts) {
+        result.completeExceptionally(new LocationServiceException(
+            "unable to look '" + query + "' up after " + attempt + " attempt(s)", cause));
+        return;
+      }
+      retries.incrementAndGet();
+      RETRY_SCHEDULER.schedule(() -> attempt(query, attempt + 1, result), backoffMillis(attempt),
+          TimeUnit.MILLISECONDS);
+    });
+  }
+
+  /**
+   * Compute the (jittered) backoff after given attempt, i.e. a random duration
+   * up to the initial backoff doubled for every previous retry (within the
+   * maximum backoff)
+   *
+   * @param attempt the number of the failed attempt (starting at 1)
+   * @return the time to wait before next attempt, in milliseconds
+   */
+  private long backoffMillis(int attempt) {
+    long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+    return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  /**
+   * Check whether a call may go through, moving the circuit from open to
+   * half-open once the cool-down has elapsed
+   *
+   * @throws LocationServiceException if the call must fail fast
+   */
+  private synchronized void checkCircuit() {
+    if (CircuitState.OPEN == state && System.nanoTime() - openedAt >= openDurationNanos) {
+      moveTo(CircuitState.HALF_OPEN);
+    }
+    if (CircuitState.OPEN == state || (CircuitState.HALF_OPEN == state && trialInFlight)) {
+      rejections.incrementAndGet();
+      throw new LocationServiceException("location service unavailable (circuit " + state + ")");
+    }
+    if (CircuitState.HALF_OPEN == state) {
+      trialInFlight = true;
+    }
+  }
+
+  /**
+   * Record a successful attempt (closing the circuit if it was a trial call)
+   */
+  private synchronized void onSuccess() {
+    successes.incrementAndGet();
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    if (CircuitState.CLOSED != state) {
+      moveTo(CircuitState.CLOSED);
+    }
+  }
+
+  /**
+   * Record a failed attempt (opening the circuit if it was a trial call or the
+   * failure threshold is reached)
+   *
+   * @param error the error of the attempt
+   */
+  private synchronized void onFailure(Throwable error) {
+    failures.incrementAndGet();
+    if (error instanceof TimeoutException) {
+      timeouts.incrementAndGet();
+    }
+    LOGGER.debug("location lookup failed", error);
+    trialInFlight = false;
+    consecutiveFailures++;
+    if (CircuitState.HALF_OPEN == state
+        || (CircuitState.CLOSED == state && consecutiveFailures >= failureThreshold)) {
+      openedAt = System.nanoTime();
+      moveTo(CircuitState.OPEN);
+    }
+  }
+
+  /**
+   * Let another trial call go through (the current one having been rejected for
+   * a reason unrelated to the health of the decorated service)
+   */
+  private synchronized void releaseTrial() {
+    trialInFlight = false;
+  }
+
+  /**
+   * Move the circuit to given state and record the transition
+   *
+   * @param target the new state
+   */
+  private void moveTo(CircuitState target) {
+    LOGGER.warn("location service circuit moved from {} to {} after {} consecutive failure(s)", state, target,
+        consecutiveFailures);
+    state = target;
+    transitions.merge(target, 1L, Long::sum);
+  }
+}
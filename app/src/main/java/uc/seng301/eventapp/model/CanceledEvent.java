@@ -61,6 +61,7 @@ public class CanceledEvent extends Event {
     setEventType(event.getEventType());
     setParticipants(event.getParticipants());
     setLocation(event.getLocation());
+    setPendingNotification(event.getPendingNotification());
   }
 
   @Override
@@ -30,16 +30,23 @@ package uc.seng301.eventapp.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.persistence.*;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 //added for U4
 import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.notification.ListenerRegistry;
+import uc.seng301.eventapp.notification.NotificationDispatcher;
 
 /**
  * Abstract entity class (JPA-compliant) that represents an event with:
@@ -75,9 +82,44 @@ import uc.seng301.eventapp.model.EventStatus;
  * ScheduledEvent).
  * 
  * See: <https://www.baeldung.com/hibernate-inheritance>
+ *
+ * All queries used by the accessors are declared as named queries below, so
+ * they are parsed and validated once when the session factory is built and are
+ * only passed parameters afterwards.
+ *
+ * Events (and their list of participants) are kept in hibernate's second-level
+ * cache (see ehcache.xml for the regions' settings).
+ *
+ * Dates are stored as numbers of milliseconds since the epoch, indexed along
+ * with the status (i.e. the "event_status" discriminator column), so date-range
+ * queries by status (see {@link EventSummary}) only read the matching rows.
  */
 @Entity
-@Table(name = "event")
+@Table(name = "event", indexes = @Index(name = "idx_event_status_date", columnList = "event_status, date"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "event")
+@NamedQueries({ @NamedQuery(name = "Event.findByName", query = "FROM Event WHERE name = :name"),
+    @NamedQuery(name = "Event.findAll", query = "FROM Event"),
+    @NamedQuery(name = "Event.findAllAfter", query = "FROM Event e WHERE e.eventId > :afterId ORDER BY e.eventId"),
+    @NamedQuery(name = "Event.findNamesIn", query = "SELECT e.name FROM Event e WHERE e.name IN (:names)"),
+    @NamedQuery(name = "Event.findScheduledByIds", query = "SELECT DISTINCT e FROM ScheduledEvent e "
+        + "LEFT JOIN FETCH e.participants WHERE e.eventId IN (:ids)"),
+    @NamedQuery(name = "Event.findByIds", query = "FROM Event e WHERE e.eventId IN (:ids)"),
+    @NamedQuery(name = "Event.findByIdsWithParticipants", query = "SELECT DISTINCT e FROM Event e "
+        + "LEFT JOIN FETCH e.participants WHERE e.eventId IN (:ids)") })
+@NamedNativeQueries({
+    @NamedNativeQuery(name = "Event.findAllWithStatus", query = "select * from event where event_status = :status",
+        resultClass = Event.class),
+    @NamedNativeQuery(name = "Event.findWithStatusAfter", query = "select * from event where event_status = :status "
+        + "and id_event > :afterId order by id_event", resultClass = Event.class),
+    @NamedNativeQuery(name = "Event.updateStatus", query = "update event set event_status = :status where id_event in (:ids)"),
+    @NamedNativeQuery(name = "Event.findDueDatesWithStatus", query = "select id_event, date from event "
+        + "where event_status = :status and date is not null"),
+    @NamedNativeQuery(name = "Event.findSummariesBetween", query = "select id_event, name, event_status, date "
+        + "from event where event_status in (:statuses) and date >= :from and date < :to order by date, id_event"),
+    @NamedNativeQuery(name = "Event.findLocatedCoordinates", query = "select e.id_event, e.event_status, l.latitude, "
+        + "l.longitude from event e join location l on l.id_location = e.id_location "
+        + "where l.latitude is not null and l.longitude is not null") })
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(discriminatorType = DiscriminatorType.STRING, name = "event_status")
 public abstract class Event {
@@ -91,13 +133,19 @@ public abstract class Event {
   private String description;
 
   private double cost;
-  private Date date;
+
+  /**
+   * Date in epoch millis
+   */
+  @Column(name = "date")
+  private Long date;
 
   @ManyToOne(fetch = FetchType.EAGER)
   @JoinColumn(name = "id_event_type")
   private EventType eventType;
 
   @ManyToMany(fetch = FetchType.LAZY)
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "event.participants")
   @JoinTable(name = "participant_attends_event", joinColumns = @JoinColumn(name = "id_event"), inverseJoinColumns = @JoinColumn(name = "id_participant"))
   private List<Participant> participants;
 
@@ -108,11 +156,29 @@ public abstract class Event {
 
   /**
    * In order to implement the observer pattern in Java, we need a "middle entity"
-   * that will be notified by the changes of the Subject.
+   * that will be notified by the changes of the Subject. Participants are
+   * registered once only (see {@link ListenerRegistry}).
+   */
+  @Transient
+  @JsonIgnore
+  private ListenerRegistry statusListeners = new ListenerRegistry();
+
+  /**
+   * Status change not notified yet, to be recorded in the notification outbox
+   * when this event is persisted (outbox mode only)
+   */
+  @Transient
+  @JsonIgnore
+  private EventStatus pendingNotification;
+
+  /**
+   * Name-keyed index of the participants used for fast membership checks. It is
+   * lazily built from the participants and kept in sync by
+   * {@link #addParticipant(Participant)} and {@link #setParticipants(List)}.
    */
   @Transient
   @JsonIgnore
-  private PropertyChangeSupport statusChangeNotifier = new PropertyChangeSupport(this);
+  private Set<String> participantNames;
 
   /**
    * Cancel this event. Only Scheduled events can be canceled.
@@ -201,6 +267,16 @@ public abstract class Event {
    * @return the date (shouldn't be null)
    */
   public Date getDate() {
+    return null != this.date ? new Date(this.date) : null;
+  }
+
+  /**
+   * Get the event's date as a number of milliseconds since the epoch (e.g., to
+   * compare it with other dates without creating any object)
+   *
+   * @return the date in epoch millis (shouldn't be null)
+   */
+  public Long getDateMillis() {
     return this.date;
   }
 
@@ -210,7 +286,7 @@ public abstract class Event {
    * @param date the event's date (shouldn't be null)
    */
   public void setDate(Date date) {
-    this.date = date;
+    this.date = null != date ? date.getTime() : null;
   }
 
   /**
@@ -259,9 +335,27 @@ public abstract class Event {
     if (getParticipants().isEmpty()) {
       participants = new ArrayList<>();
     }
+    if (null != participantNames) {
+      participantNames.add(participant.getName());
+    }
     return getParticipants().add(participant);
   }
 
+  /**
+   * Check whether a participant with given name participates into this event
+   * (perfect match) in constant time. The participants must have been resolved.
+   *
+   * @param name a participant name
+   * @return true if a participant with given name is in the participants list
+   */
+  public boolean hasParticipantNamed(String name) {
+    if (null == participantNames) {
+      participantNames = new HashSet<>();
+      getParticipants().forEach(participant -> participantNames.add(participant.getName()));
+    }
+    return participantNames.contains(name);
+  }
+
   /**
    * Get the participants entities participating into this event
    *
@@ -297,16 +391,18 @@ public abstract class Event {
    */
   public void setParticipants(List<Participant> participants) {
     this.participants = participants;
+    this.participantNames = null;
   }
 
   /**
-   * Attach a Participant (observer) to this Event (subject)
+   * Attach a Participant (observer) to this Event (subject). Attaching an
+   * already attached participant has no effect.
    *
    * @param participant the participant (aka {@link PropertyChangeListener} implementation object)
    *            that will observe this subject (assumed not null)
    */
   public void attach(Participant participant) {
-    statusChangeNotifier.addPropertyChangeListener(participant);
+    statusListeners.attach(participant);
   }
 
   /**
@@ -316,7 +412,16 @@ public abstract class Event {
    *            that was observing this subject (assumed not null)
    */
   public void detach(Participant participant) {
-    statusChangeNotifier.removePropertyChangeListener(participant);
+    statusListeners.detach(participant);
+  }
+
+  /**
+   * Get the number of (unique) participants observing this event
+   *
+   * @return the number of attached participants
+   */
+  public int getListenerCount() {
+    return statusListeners.size();
   }
 
   /**
@@ -324,17 +429,70 @@ public abstract class Event {
    * Will have no effects on dead persons or if given status is the same
    * as the current status (silent defensive programming). U4
    *
+   * Observers are notified asynchronously (see {@link NotificationDispatcher}),
+   * this method returns as soon as the notifications are queued. If the outbox
+   * is enabled (see {@link NotificationDispatcher#isOutboxEnabled()}), the
+   * notification is only kept as pending on this event, to be recorded when the
+   * event is persisted and delivered later on by an
+   * {@link uc.seng301.eventapp.notification.OutboxRelay}.
+   *
    * @param newStatus the eventType to update this event with (assumed not null)
    */
   public void notifyParticipants(EventStatus newStatus) {
     if(newStatus == EventStatus.ARCHIVED){
       participants.clear();
+      participantNames = null;
+      statusListeners.clear();
     }
+    if (NotificationDispatcher.getInstance().isOutboxEnabled()) {
+      pendingNotification = newStatus;
+      return;
+    }
+    publishStatusChange(newStatus);
+  }
+
+  /**
+   * Notify all participants (and other attached observers) right away that this
+   * event has been moved to given status (regardless of the outbox).
+   *
+   * @param newStatus the status this event has been moved to (assumed not null)
+   * @return a future completed once all observers have been notified
+   */
+  public CompletableFuture<Void> publishStatusChange(EventStatus newStatus) {
     for(Participant participant: participants){
       attach(participant);
     }
     System.out.println(getName() + " updates its status to " + newStatus);
-    statusChangeNotifier.firePropertyChange("status","OLDSTATUS", newStatus);
+    return NotificationDispatcher.getInstance().dispatch(this, statusListeners.getListeners(), newStatus);
+  }
+
+  /**
+   * Get the status change of this event that has not been notified yet (outbox
+   * mode only)
+   *
+   * @return the status to notify the participants about, null if none
+   */
+  public EventStatus getPendingNotification() {
+    return pendingNotification;
+  }
+
+  /**
+   * Set the status change of this event that has not been notified yet (e.g.,
+   * when copying an event into another state)
+   *
+   * @param pendingNotification the status to notify participants about (can be
+   *                            null)
+   */
+  protected void setPendingNotification(EventStatus pendingNotification) {
+    this.pendingNotification = pendingNotification;
+  }
+
+  /**
+   * Forget about the pending status change of this event, i.e. once it has been
+   * recorded in the outbox
+   */
+  public void clearPendingNotification() {
+    this.pendingNotification = null;
   }
 
   @Override
@@ -0,0 +1,118 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+package uc.seng301.eventapp.model;
+
+import java.util.Date;
+
+/**
+ * Read-only projection of an {@link Event} (id, name, status and date), as
+ * retrieved by date-range queries (see
+ * {@link uc.seng301.eventapp.accessor.EventAccessor#getEventsBetween(Date, Date, EventStatus)}).
+ * Summaries are read from the rows directly, i.e. no entity (nor its type,
+ * location or participants) is loaded or managed by hibernate.
+ */
+public class EventSummary {
+
+  private final long eventId;
+  private final String name;
+  private final EventStatus status;
+  private final long dateMillis;
+
+  /**
+   * Default constructor.
+   *
+   * @param eventId    the id of the event
+   * @param name       its name
+   * @param status     its status
+   * @param dateMillis its date, in epoch millis
+   */
+  public EventSummary(long eventId, String name, EventStatus status, long dateMillis) {
+    this.eventId = eventId;
+    this.name = name;
+    this.status = status;
+    this.dateMillis = dateMillis;
+  }
+
+  /**
+   * Get the technical ID of the event (e.g., to load it with
+   * {@link uc.seng301.eventapp.accessor.EventAccessor#getEventById(Long)})
+   *
+   * @return the unique Id
+   */
+  public long getEventId() {
+    return this.eventId;
+  }
+
+  /**
+   * Get the event's name
+   *
+   * @return the name
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Get the event's status
+   *
+   * @return the status
+   */
+  public EventStatus getStatus() {
+    return this.status;
+  }
+
+  /**
+   * Get the event's date as a number of milliseconds since the epoch
+   *
+   * @return the date in epoch millis
+   */
+  public long getDateMillis() {
+    return this.dateMillis;
+  }
+
+  /**
+   * Get the event's date
+   *
+   * @return the date
+   */
+  public Date getDate() {
+    return new Date(this.dateMillis);
+  }
+
+  @Override
+  public String toString() {
+    // @formatter:off
+    return "{" +
+      " eventId='" + getEventId() + "'" +
+      ", name='" + getName() + "'" +
+      ", status='" + getStatus() + "'" +
+      ", date='" + getDate() + "'" +
+      "}";
+      // @formatter:on
+  }
+}
@@ -29,18 +29,26 @@ package uc.seng301.eventapp.model;
 
 import java.util.Collections;
 import java.util.List;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * This entity class types one or multiple {@link Event}. The event's name
  * should be unique. Contains references to all events typed by this type.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "eventType")
+@NamedQuery(name = "EventType.findByName", query = "FROM EventType WHERE name = :name")
 public class EventType {
 
   @Id
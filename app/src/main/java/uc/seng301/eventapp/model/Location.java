@@ -27,23 +27,36 @@
 
 package uc.seng301.eventapp.model;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * This entity represents the location linked to an event. This entity only
  * exists linked to a single event (one-to-one). It will be deleted when an
  * event is deleted.
  *
  * In other words, the livecycle of this entity is linked to its parent event
+ *
+ * Coordinates are stored as numbers (in decimal degrees), along with their
+ * geohash (see {@link #getGeohash()}), an indexed column so that locations close
+ * to each other can be found by prefix in the database. Proximity queries on
+ * events go through the in-memory index of the
+ * {@link uc.seng301.eventapp.accessor.EventAccessor} though.
  */
 @Entity
-@Table(name = "location")
+@Table(name = "location", indexes = @Index(name = "idx_location_geohash", columnList = "geohash"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "location")
 public class Location {
 
   @Id
@@ -51,10 +64,20 @@ public class Location {
   @Column(name = "id_location")
   private Long locationId;
 
+  /**
+   * Number of characters of the geohashes (i.e. cells of a few centimetres)
+   */
+  public static final int GEOHASH_PRECISION = 12;
+
+  private static final String GEOHASH_ALPHABET = "0123456789bcdefghjkmnpqrstuvwxyz";
+
   private String name;
 
-  private String latitude;
-  private String longitude;
+  private Double latitude;
+  private Double longitude;
+
+  @Column(length = GEOHASH_PRECISION)
+  private String geohash;
 
   @OneToOne(mappedBy = "location")
   private Event event;
@@ -72,20 +95,37 @@ public class Location {
    * @param name the location name
    */
   public Location(String name) {
-    this(name, null, null);
+    this(name, (Double) null, null);
   }
 
   /**
-   * Convenience constructor
+   * Convenience constructor with coordinates as returned by the location
+   * services (see {@link uc.seng301.eventapp.location.LocationServiceResult})
    *
    * @param name      the location name
-   * @param latitude  its latitude
-   * @param longitude its longitude
+   * @param latitude  its latitude, in decimal degrees (may be null)
+   * @param longitude its longitude, in decimal degrees (may be null)
+   * @throws IllegalArgumentException if given coordinates are not numbers, out of
+   *                                  range or only one of them is null
    */
   public Location(String name, String latitude, String longitude) {
+    this(name, parseCoordinate(latitude), parseCoordinate(longitude));
+  }
+
+  /**
+   * Default constructor
+   *
+   * @param name      the location name
+   * @param latitude  its latitude, in decimal degrees within [-90, 90] (may be
+   *                  null)
+   * @param longitude its longitude, in decimal degrees within [-180, 180] (may
+   *                  be null)
+   * @throws IllegalArgumentException if given coordinates are out of range or
+   *                                  only one of them is null
+   */
+  public Location(String name, Double latitude, Double longitude) {
     this.name = name;
-    this.latitude = latitude;
-    this.longitude = longitude;
+    setCoordinates(latitude, longitude);
   }
 
   /**
@@ -127,37 +167,61 @@ public class Location {
   /**
    * Get this location's' latitude
    *
-   * @return the latitude, can be null
+   * @return the latitude in decimal degrees, can be null
    */
-  public String getLatitude() {
+  public Double getLatitude() {
     return this.latitude;
   }
 
   /**
-   * Set this location's latitude
+   * Get this location's longitude
    *
-   * @param latitude a latitude (value assumed valid)
+   * @return the longitude in decimal degrees, can be null
    */
-  public void setLatitude(String latitude) {
+  public Double getLongitude() {
+    return this.longitude;
+  }
+
+  /**
+   * Set this location's coordinates (and geohash)
+   *
+   * @param latitude  a latitude, in decimal degrees within [-90, 90] (may be
+   *                  null)
+   * @param longitude a longitude, in decimal degrees within [-180, 180] (may be
+   *                  null)
+   * @throws IllegalArgumentException if given coordinates are out of range or
+   *                                  only one of them is null
+   */
+  public void setCoordinates(Double latitude, Double longitude) {
+    if ((null == latitude) != (null == longitude)) {
+      throw new IllegalArgumentException("latitude and longitude must be both set or both null");
+    }
+    if (null != latitude && !(Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180)) {
+      throw new IllegalArgumentException("invalid coordinates (" + latitude + ", " + longitude + ")");
+    }
     this.latitude = latitude;
+    this.longitude = longitude;
+    this.geohash = null != latitude ? geohash(latitude, longitude, GEOHASH_PRECISION) : null;
   }
 
   /**
-   * Get this location's longitude
+   * Check whether this location has coordinates
    *
-   * @return the latitude, can be null
+   * @return true if both latitude and longitude are set
    */
-  public String getLongitude() {
-    return this.longitude;
+  public boolean hasCoordinates() {
+    return null != latitude && null != longitude;
   }
 
   /**
-   * Set this location's longitude
+   * Get the geohash of this location's coordinates, i.e. a base 32 string
+   * identifying a cell that contains them, locations sharing a longer prefix
+   * being in the same (smaller) cell
    *
-   * @param longitude a longitude (value assumed valid)
+   * @return the geohash, null if this location has no coordinates
    */
-  public void setLongitude(String longitude) {
-    this.longitude = longitude;
+  public String getGeohash() {
+    return this.geohash;
   }
 
   /**
@@ -186,7 +250,64 @@ public class Location {
       ", name='" + getName() + "'" +
       ", latitude='" + getLatitude() + "'" +
       ", longitude='" + getLongitude() + "'" +
+      ", geohash='" + getGeohash() + "'" +
       "}";
       // @formatter:on
   }
+
+  /**
+   * Compute the geohash of given coordinates, i.e. interleave the bits of the
+   * successive bisections of the longitude and latitude ranges and encode them
+   * in base 32
+   *
+   * @param latitude  a latitude within [-90, 90]
+   * @param longitude a longitude within [-180, 180]
+   * @param precision the number of characters of the geohash
+   * @return the geohash of given coordinates
+   */
+  public static String geohash(double latitude, double longitude, int precision) {
+    double[] latitudeRange = { -90, 90 };
+    double[] longitudeRange = { -180, 180 };
+    StringBuilder result = new StringBuilder(precision);
+    boolean evenBit = true;
+    int bits = 0;
+    int character = 0;
+    while (result.length() < precision) {
+      double[] range = evenBit ? longitudeRange : latitudeRange;
+      double value = evenBit ? longitude : latitude;
+      double middle = (range[0] + range[1]) / 2;
+      character <<= 1;
+      if (value >= middle) {
+        character |= 1;
+        range[0] = middle;
+      } else {
+        range[1] = middle;
+      }
+      evenBit = !evenBit;
+      if (++bits == 5) {
+        result.append(GEOHASH_ALPHABET.charAt(character));
+        bits = 0;
+        character = 0;
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Parse a coordinate in decimal degrees
+   *
+   * @param coordinate a coordinate (may be null or blank)
+   * @return the coordinate, null if given one is null or blank
+   * @throws IllegalArgumentException if given coordinate is not a number
+   */
+  private static Double parseCoordinate(String coordinate) {
+    if (null == coordinate || coordinate.isBlank()) {
+      return null;
+    }
+    try {
+      return Double.valueOf(coordinate.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid coordinate '" + coordinate + "'", e);
+    }
+  }
 }
@@ -0,0 +1,134 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+package uc.seng301.eventapp.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * This entity represents a status change notification of an {@link Event} that
+ * still has to be delivered to the event's participants (transactional outbox).
+ * Rows are inserted in the same transaction as the status change of the event
+ * and deleted once the notification has been delivered.
+ *
+ * Rows are only inserted through the "OutboxNotification.insertForEvents"
+ * native query, so the id is an identity column assigned by the database
+ * itself.
+ */
+@Entity
+@Table(name = "notification_outbox")
+@NamedQueries({
+    @NamedQuery(name = "OutboxNotification.findPending", query = "FROM OutboxNotification n ORDER BY n.notificationId"),
+    @NamedQuery(name = "OutboxNotification.deleteByIds", query = "DELETE FROM OutboxNotification n "
+        + "WHERE n.notificationId IN (:ids)") })
+@NamedNativeQuery(name = "OutboxNotification.insertForEvents", query = "insert into notification_outbox "
+    + "(id_event, new_status, created_at) select id_event, :status, :createdAt from event where id_event in (:ids)")
+public class OutboxNotification {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id_notification")
+  private Long notificationId;
+
+  @Column(name = "id_event", nullable = false)
+  private Long eventId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "new_status", nullable = false)
+  private EventStatus newStatus;
+
+  @Column(name = "created_at")
+  private Date createdAt;
+
+  /**
+   * JPA compliant no-args constructor (notifications are only created in the
+   * database)
+   */
+  OutboxNotification() {
+    // JPA requirement
+  }
+
+  /**
+   * Get this notification technical id (assigned by the database)
+   *
+   * @return a unique notification id
+   */
+  public Long getNotificationId() {
+    return this.notificationId;
+  }
+
+  /**
+   * Get the id of the event that changed its status
+   *
+   * @return an event id
+   */
+  public Long getEventId() {
+    return this.eventId;
+  }
+
+  /**
+   * Get the status the event has been moved to
+   *
+   * @return the new status of the event
+   */
+  public EventStatus getNewStatus() {
+    return this.newStatus;
+  }
+
+  /**
+   * Get the date this notification has been recorded
+   *
+   * @return the date of the status change
+   */
+  public Date getCreatedAt() {
+    return this.createdAt;
+  }
+
+  @Override
+  public String toString() {
+    // @formatter:off
+    return "{" +
+      " notificationId='" + getNotificationId() + "'" +
+      ", eventId='" + getEventId() + "'" +
+      ", newStatus='" + getNewStatus() + "'" +
+      ", createdAt='" + getCreatedAt() + "'" +
+      "}";
+      // @formatter:on
+  }
+}
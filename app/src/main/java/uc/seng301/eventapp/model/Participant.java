@@ -34,6 +34,7 @@ import java.beans.PropertyChangeListener;
 import java.util.Collections;
 import java.util.List;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -43,14 +44,23 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * This entity represents a participant to an event. Contains a reference to the
  * list of events this participant participates in.
  */
 @Entity
 @Table(name = "participant")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "participant")
+@NamedQueries({ @NamedQuery(name = "Participant.findByName", query = "FROM Participant WHERE name = :name"),
+    @NamedQuery(name = "Participant.findByNames", query = "FROM Participant WHERE name IN (:names)") })
 public class Participant implements PropertyChangeListener  {
 
   @Id
@@ -105,6 +115,30 @@ public class Participant implements PropertyChangeListener  {
     System.out.println(getName() + ": the event " + even.getName() + " has updated its status to " + event.getNewValue());
   }
 
+  /**
+   * Respond to a digest of status changes of (possibly) multiple events this
+   * participant attends, i.e. coalesced notifications (see
+   * {@link uc.seng301.eventapp.notification.NotificationCoalescer}). A digest of
+   * a single change is handled as a regular notification.
+   *
+   * @param events the (Java) events of the status changes, in the order they
+   *               occurred (not null nor empty)
+   */
+  public void statusDigest(List<PropertyChangeEvent> events) {
+    if (1 == events.size()) {
+      propertyChange(events.get(0));
+      return;
+    }
+    StringBuilder digest = new StringBuilder(getName()).append(": ").append(events.size())
+        .append(" events have updated their status:");
+    for (PropertyChangeEvent event : events) {
+      digest.append(" ").append(((Event) event.getSource()).getName()).append(" (").append(event.getNewValue())
+          .append("),");
+    }
+    digest.setLength(digest.length() - 1);
+    System.out.println(digest);
+  }
+
   /**
    * Get this participant technical id (JPA managed)
    * 
@@ -62,6 +62,7 @@ public class PastEvent extends Event {
     setEventType(event.getEventType());
     setParticipants(event.getParticipants());
     setLocation(event.getLocation());
+    setPendingNotification(event.getPendingNotification());
   }
 
   @Override
@@ -82,6 +82,7 @@ public class ScheduledEvent extends Event {
     setEventType(event.getEventType());
     setParticipants(event.getParticipants());
     setLocation(event.getLocation());
+    setPendingNotification(event.getPendingNotification());
   }
 
   @Override
@@ -0,0 +1,96 @@
+package uc.seng301.eventapp.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import uc.seng301.eventapp.model.Participant;
+
+/**
+ * Registry of the {@link Participant}s observing the status of an event. Each
+ * participant is registered at most once, keyed by its id (or by its name
+ * while it has not been persisted yet, names being unique), so attaching the
+ * same participant on every status change does not add duplicate listeners.
+ *
+ * Attaching and detaching are O(1) and safe to call while notifications are
+ * being dispatched (listeners are handed out as a snapshot).
+ */
+public class ListenerRegistry {
+
+  private final ConcurrentMap<Object, Participant> listeners = new ConcurrentHashMap<>();
+
+  /**
+   * Register given participant, replacing any previous registration of the same
+   * participant
+   *
+   * @param participant a participant (not null)
+   * @throws IllegalArgumentException if given participant is null
+   */
+  public void attach(Participant participant) {
+    if (null == participant) {
+      throw new IllegalArgumentException("cannot attach null participant");
+    }
+    if (null != participant.getParticipantId() && null != participant.getName()) {
+      // it may have been attached before being persisted
+      listeners.remove(participant.getName());
+    }
+    listeners.put(keyOf(participant), participant);
+  }
+
+  /**
+   * Unregister given participant, ignored if it was not registered
+   *
+   * @param participant a participant (not null)
+   * @throws IllegalArgumentException if given participant is null
+   */
+  public void detach(Participant participant) {
+    if (null == participant) {
+      throw new IllegalArgumentException("cannot detach null participant");
+    }
+    listeners.remove(keyOf(participant));
+    if (null != participant.getName()) {
+      listeners.remove(participant.getName());
+    }
+  }
+
+  /**
+   * Unregister all participants
+   */
+  public void clear() {
+    listeners.clear();
+  }
+
+  /**
+   * Get the number of (unique) registered participants
+   *
+   * @return the number of listeners
+   */
+  public int size() {
+    return listeners.size();
+  }
+
+  /**
+   * Get a snapshot of all registered participants, later changes to this
+   * registry are not reflected in the returned list
+   *
+   * @return the (possibly empty) list of registered participants
+   */
+  public List<Participant> getListeners() {
+    return new ArrayList<>(listeners.values());
+  }
+
+  /**
+   * Get the key a participant is registered with
+   *
+   * @param participant a participant (not null)
+   * @return its id if it has been persisted, its name otherwise (or the
+   *         participant itself if it has no name either)
+   */
+  static Object keyOf(Participant participant) {
+    if (null != participant.getParticipantId()) {
+      return participant.getParticipantId();
+    }
+    return null != participant.getName() ? participant.getName() : participant;
+  }
+}
@@ -0,0 +1,255 @@
+package uc.seng301.eventapp.notification;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import uc.seng301.eventapp.model.Participant;
+
+/**
+ * Coalescing stage between the status changes of events and their delivery to
+ * participants. Status changes are buffered and grouped by participant, then
+ * handed over as one {@link Digest} per participant when the window closes,
+ * i.e. when {@link #getWindowMillis()} elapsed since the first buffered change
+ * or when {@link #getMaxChanges()} changes are buffered, whichever comes first.
+ *
+ * The compression ratio (number of changes per delivered digest) tells how many
+ * individual messages have been saved.
+ */
+public class NotificationCoalescer {
+
+  /**
+   * All status changes to deliver to a participant at once
+   */
+  public static final class Digest {
+    private final Participant participant;
+    private final List<PropertyChangeEvent> changes = new ArrayList<>();
+    // completed by the sink once this digest has been delivered
+    final CompletableFuture<Void> delivered = new CompletableFuture<>();
+
+    private Digest(Participant participant) {
+      this.participant = participant;
+    }
+
+    /**
+     * Get the participant to deliver the changes to
+     *
+     * @return a participant
+     */
+    public Participant getParticipant() {
+      return participant;
+    }
+
+    /**
+     * Get the status changes, in the order they occurred
+     *
+     * @return a non empty list of status changes
+     */
+    public List<PropertyChangeEvent> getChanges() {
+      return Collections.unmodifiableList(changes);
+    }
+  }
+
+  private final long windowMillis;
+  private final int maxChanges;
+  private final Consumer<List<Digest>> sink;
+  private final ScheduledExecutorService timer;
+  // serialises the hand-overs, so that windows reach the sink in order
+  private final Object handOver = new Object();
+
+  private Map<Object, Digest> buffer = new LinkedHashMap<>();
+  private int bufferedChanges = 0;
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean shutdown = false;
+  private long deliveredChanges = 0;
+  private long deliveredDigests = 0;
+
+  /**
+   * Default constructor.
+   *
+   * @param windowMillis the maximum time a change is buffered (in milliseconds,
+   *                     strictly positive)
+   * @param maxChanges   the maximum number of buffered changes (strictly
+   *                     positive)
+   * @param sink         where to hand the digests over when the window closes
+   *                     (not null), called outside of this coalescer's lock
+   *                     (changes keep being buffered meanwhile), but one window
+   *                     at a time
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public NotificationCoalescer(long windowMillis, int maxChanges, Consumer<List<Digest>> sink) {
+    if (windowMillis <= 0 || maxChanges <= 0 || null == sink) {
+      throw new IllegalArgumentException("window '" + windowMillis + "' and max changes '" + maxChanges
+          + "' must be strictly positive and sink cannot be null");
+    }
+    this.windowMillis = windowMillis;
+    this.maxChanges = maxChanges;
+    this.sink = sink;
+    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "notification-coalescer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Buffer a status change to be delivered to given participant. Once this
+   * coalescer has been shut down, changes are not buffered anymore but handed
+   * over right away, each in a digest of its own.
+   *
+   * @param participant the participant to notify (not null)
+   * @param change      the status change (not null)
+   * @return a future completed once the digest containing given change has
+   *         been delivered by the sink
+   */
+  public CompletableFuture<Void> add(Participant participant, PropertyChangeEvent change) {
+    boolean late;
+    boolean full = false;
+    Digest digest;
+    synchronized (this) {
+      late = shutdown;
+      if (late) {
+        // no window can be opened anymore since the timer is stopped
+        digest = new Digest(participant);
+        deliveredChanges++;
+        deliveredDigests++;
+      } else {
+        digest = buffer.computeIfAbsent(ListenerRegistry.keyOf(participant), key -> new Digest(participant));
+        bufferedChanges++;
+        full = bufferedChanges >= maxChanges;
+        if (!full && null == scheduledFlush) {
+          scheduledFlush = timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+      digest.changes.add(change);
+    }
+    if (late) {
+      synchronized (handOver) {
+        sink.accept(List.of(digest));
+      }
+    } else if (full) {
+      flush();
+    }
+    return digest.delivered;
+  }
+
+  /**
+   * Close the current window, i.e. hand all buffered changes over right away
+   */
+  public void flush() {
+    synchronized (handOver) {
+      List<Digest> digests = closeWindow();
+      if (!digests.isEmpty()) {
+        sink.accept(digests);
+      }
+    }
+  }
+
+  /**
+   * Swap the buffer for an empty one and account for the changes it contains
+   *
+   * @return the digests of the window just closed (empty if nothing was
+   *         buffered)
+   */
+  private synchronized List<Digest> closeWindow() {
+    if (null != scheduledFlush) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    if (buffer.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Digest> digests = new ArrayList<>(buffer.values());
+    deliveredChanges += bufferedChanges;
+    deliveredDigests += digests.size();
+    buffer = new LinkedHashMap<>();
+    bufferedChanges = 0;
+    return digests;
+  }
+
+  /**
+   * Hand all buffered changes over and stop the timer of this coalescer. Changes
+   * added afterwards are handed over right away (see
+   * {@link #add(Participant, PropertyChangeEvent)}).
+   */
+  public void shutdown() {
+    synchronized (this) {
+      shutdown = true;
+    }
+    flush();
+    timer.shutdown();
+  }
+
+  /**
+   * Get the maximum time a change is buffered
+   *
+   * @return the window duration in milliseconds
+   */
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  /**
+   * Get the maximum number of buffered changes
+   *
+   * @return the window size in number of changes
+   */
+  public int getMaxChanges() {
+    return maxChanges;
+  }
+
+  /**
+   * Get the number of changes currently buffered
+   *
+   * @return the number of changes waiting for the window to close
+   */
+  public synchronized int getBufferedChanges() {
+    return bufferedChanges;
+  }
+
+  /**
+   * Get the number of changes handed over so far
+   *
+   * @return the number of coalesced changes
+   */
+  public synchronized long getDeliveredChanges() {
+    return deliveredChanges;
+  }
+
+  /**
+   * Get the number of digests handed over so far (i.e. the number of messages
+   * participants actually receive)
+   *
+   * @return the number of digests
+   */
+  public synchronized long getDeliveredDigests() {
+    return deliveredDigests;
+  }
+
+  /**
+   * Get the compression ratio achieved so far, i.e. the average number of
+   * changes per digest
+   *
+   * @return the compression ratio (1 if nothing has been delivered yet)
+   */
+  public synchronized double getCompressionRatio() {
+    return 0 == deliveredDigests ? 1.0 : (double) deliveredChanges / deliveredDigests;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "{ deliveredChanges='" + deliveredChanges + "', deliveredDigests='" + deliveredDigests
+        + "', compressionRatio='" + String.format("%.2f", getCompressionRatio()) + "', bufferedChanges='"
+        + bufferedChanges + "' }";
+  }
+}
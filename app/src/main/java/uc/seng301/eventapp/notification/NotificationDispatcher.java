@@ -0,0 +1,339 @@
+package uc.seng301.eventapp.notification;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.notification.NotificationCoalescer.Digest;
+
+/**
+ * Dispatch status change notifications of {@link Event}s to their listeners
+ * (i.e. participants) asynchronously. Listeners are split into batches of
+ * {@link #BATCH_SIZE} that are handed to a bounded pool of worker threads, so
+ * the thread changing the status of an event returns as soon as the
+ * notifications are queued.
+ *
+ * Backpressure: at most {@link #QUEUE_CAPACITY} batches may be waiting for a
+ * worker, when the queue is full, the calling thread delivers its batch itself
+ * (and is slowed down accordingly) rather than piling up notifications in
+ * memory.
+ *
+ * Notifications are delivered at most once, in no particular order across
+ * batches. Use {@link #flush()} to wait for all queued notifications to be
+ * delivered (e.g., before exiting or in tests), or the future returned by
+ * {@link #dispatch(Event, Collection, EventStatus)} to wait for the delivery of
+ * one notification only.
+ *
+ * Coalescing (disabled by default, see {@link #enableCoalescing(long, int)}):
+ * the status changes for {@link Participant}s are buffered by a
+ * {@link NotificationCoalescer} and delivered as one digest per participant and
+ * window (see {@link Participant#statusDigest(List)}) rather than as one
+ * message per change.
+ */
+public class NotificationDispatcher {
+
+  /**
+   * Maximum number of listeners notified by a single task
+   */
+  public static final int BATCH_SIZE = 500;
+
+  /**
+   * Maximum number of batches waiting for a worker
+   */
+  public static final int QUEUE_CAPACITY = 1000;
+
+  private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private static NotificationDispatcher instance;
+
+  private static final Logger LOGGER = LogManager.getLogger(NotificationDispatcher.class);
+
+  private final ThreadPoolExecutor executor;
+  private volatile boolean outboxEnabled = false;
+  private volatile NotificationCoalescer coalescer;
+  private final Object idle = new Object();
+  private int pendingBatches = 0;
+
+  /**
+   * Singleton (aka unique instance) => hide constructor
+   */
+  private NotificationDispatcher() {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "notification-dispatcher-" + threadCount.incrementAndGet());
+      // never prevent the app from exiting (see flush)
+      thread.setDaemon(true);
+      return thread;
+    };
+    executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Retrieve a unique instance of a NotificationDispatcher (thread-safe)
+   *
+   * @return this unique instance
+   */
+  public static synchronized NotificationDispatcher getInstance() {
+    if (null == instance) {
+      instance = new NotificationDispatcher();
+    }
+    return instance;
+  }
+
+  /**
+   * Check whether status change notifications go through the transactional
+   * outbox, i.e. are recorded with the status change when the event is persisted
+   * and delivered by an {@link OutboxRelay}, rather than dispatched right away
+   *
+   * @return true if the outbox is enabled (false by default)
+   */
+  public boolean isOutboxEnabled() {
+    return outboxEnabled;
+  }
+
+  /**
+   * Enable or disable the transactional outbox (see {@link #isOutboxEnabled()})
+   *
+   * @param outboxEnabled true to record notifications in the outbox, false to
+   *                      dispatch them right away
+   */
+  public void setOutboxEnabled(boolean outboxEnabled) {
+    this.outboxEnabled = outboxEnabled;
+  }
+
+  /**
+   * Buffer the status changes for participants and deliver them as digests (one
+   * per participant) when given window closes. Changes already buffered by a
+   * previous call are handed over first.
+   *
+   * @param windowMillis the maximum time a change is buffered (in milliseconds,
+   *                     strictly positive)
+   * @param maxChanges   the maximum number of buffered changes before the window
+   *                     closes (strictly positive)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public synchronized void enableCoalescing(long windowMillis, int maxChanges) {
+    NotificationCoalescer previous = coalescer;
+    coalescer = new NotificationCoalescer(windowMillis, maxChanges, this::deliverDigests);
+    if (null != previous) {
+      previous.shutdown();
+    }
+    LOGGER.info("notifications coalesced in windows of {} ms or {} changes", windowMillis, maxChanges);
+  }
+
+  /**
+   * Deliver status changes right away again (after having handed over all
+   * buffered changes). Changes being dispatched meanwhile are delivered right
+   * away too. Has no effect if coalescing is not enabled.
+   */
+  public synchronized void disableCoalescing() {
+    NotificationCoalescer previous = coalescer;
+    coalescer = null;
+    if (null != previous) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Get the coalescer buffering the status changes for participants, if any
+   *
+   * @return the current coalescer (with its metrics), null if coalescing is not
+   *         enabled
+   */
+  public NotificationCoalescer getCoalescer() {
+    return coalescer;
+  }
+
+  /**
+   * Queue the notification of given listeners that given event has changed its
+   * status. Given listeners are copied, so the caller may modify its collection
+   * right after.
+   *
+   * @param source    the event that changed its status (not null)
+   * @param listeners the listeners to notify (not null, may be empty)
+   * @param newStatus the new status of the event (not null)
+   * @return a future completed once all given listeners have been notified
+   *         (coalesced changes included, i.e. once their window has closed)
+   * @throws IllegalArgumentException if any of the passed arguments is null
+   */
+  public CompletableFuture<Void> dispatch(Event source, Collection<? extends PropertyChangeListener> listeners,
+      EventStatus newStatus) {
+    if (null == source || null == listeners || null == newStatus) {
+      throw new IllegalArgumentException("cannot dispatch notification with null event, listeners or status");
+    }
+    if (listeners.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    // same (java) event as the one fired by a PropertyChangeSupport
+    PropertyChangeEvent change = new PropertyChangeEvent(source, "status", "OLDSTATUS", newStatus);
+    NotificationCoalescer currentCoalescer = coalescer;
+    List<CompletableFuture<Void>> deliveries = new ArrayList<>();
+    List<PropertyChangeListener> batch = new ArrayList<>(Math.min(BATCH_SIZE, listeners.size()));
+    for (PropertyChangeListener listener : listeners) {
+      if (null != currentCoalescer && listener instanceof Participant) {
+        deliveries.add(currentCoalescer.add((Participant) listener, change));
+        continue;
+      }
+      batch.add(listener);
+      if (batch.size() == BATCH_SIZE) {
+        deliveries.add(submit(change, batch));
+        batch = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+    if (!batch.isEmpty()) {
+      deliveries.add(submit(change, batch));
+    }
+    LOGGER.debug("queued notification of {} listeners of event '{}' (status '{}')", listeners.size(), source.getName(),
+        newStatus);
+    return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Close the current coalescing window, i.e. hand the buffered status changes
+   * over for delivery right away (without waiting for them to be delivered).
+   * Has no effect if coalescing is not enabled.
+   */
+  public void closeWindow() {
+    NotificationCoalescer currentCoalescer = coalescer;
+    if (null != currentCoalescer) {
+      currentCoalescer.flush();
+    }
+  }
+
+  /**
+   * Wait until all queued notifications have been delivered (status changes
+   * buffered for coalescing are handed over right away).
+   */
+  public void flush() {
+    flush(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Wait until all queued notifications have been delivered or given timeout
+   * elapses (status changes buffered for coalescing are handed over right
+   * away).
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   * @return true if all notifications have been delivered, false if the timeout
+   *         elapsed before (or the waiting thread has been interrupted)
+   */
+  public boolean flush(long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+    closeWindow();
+    synchronized (idle) {
+      while (pendingBatches > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of batches of notifications queued or being delivered
+   *
+   * @return the number of pending batches (0 if idle)
+   */
+  public int getPendingBatches() {
+    synchronized (idle) {
+      return pendingBatches;
+    }
+  }
+
+  /**
+   * Hand given batch to a worker (or run it on the calling thread if the queue
+   * is full)
+   *
+   * @param change the notification to deliver
+   * @param batch  the listeners to notify
+   * @return a future completed once all listeners of the batch have been
+   *         notified
+   */
+  private CompletableFuture<Void> submit(PropertyChangeEvent change, List<PropertyChangeListener> batch) {
+    return submit(() -> {
+      for (PropertyChangeListener listener : batch) {
+        try {
+          listener.propertyChange(change);
+        } catch (RuntimeException e) {
+          // one failing listener must not prevent the others from being notified
+          LOGGER.error("unable to notify listener {} of event {}", listener, change.getSource(), e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Deliver given digests in batches of {@link #BATCH_SIZE} (called by the
+   * coalescer when a window closes)
+   *
+   * @param digests the digests to deliver
+   */
+  private void deliverDigests(List<Digest> digests) {
+    for (int i = 0; i < digests.size(); i += BATCH_SIZE) {
+      List<Digest> batch = digests.subList(i, Math.min(i + BATCH_SIZE, digests.size()));
+      submit(() -> {
+        for (Digest digest : batch) {
+          try {
+            digest.getParticipant().statusDigest(digest.getChanges());
+          } catch (RuntimeException e) {
+            LOGGER.error("unable to deliver digest of {} changes to {}", digest.getChanges().size(),
+                digest.getParticipant(), e);
+          }
+        }
+      }).thenRun(() -> batch.forEach(digest -> digest.delivered.complete(null)));
+    }
+  }
+
+  /**
+   * Hand given delivery task to a worker (or run it on the calling thread if the
+   * queue is full), keeping track of pending batches for {@link #flush()}
+   *
+   * @param delivery the task delivering a batch of notifications
+   * @return a future completed once the task has run
+   */
+  private CompletableFuture<Void> submit(Runnable delivery) {
+    CompletableFuture<Void> delivered = new CompletableFuture<>();
+    synchronized (idle) {
+      pendingBatches++;
+    }
+    executor.execute(() -> {
+      try {
+        delivery.run();
+      } finally {
+        delivered.complete(null);
+        synchronized (idle) {
+          if (--pendingBatches == 0) {
+            idle.notifyAll();
+          }
+        }
+      }
+    });
+    return delivered;
+  }
+}
@@ -0,0 +1,173 @@
+package uc.seng301.eventapp.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import uc.seng301.eventapp.accessor.EventAccessor;
+import uc.seng301.eventapp.accessor.OutboxAccessor;
+import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.OutboxNotification;
+
+/**
+ * Background relay delivering the status change notifications recorded in the
+ * transactional outbox (see {@link OutboxAccessor}). Every poll interval, the
+ * relay reads pending notifications in batches, notifies the participants of
+ * the corresponding events through the {@link NotificationDispatcher}, waits
+ * for the delivery of that batch to complete and only then deletes the
+ * notifications.
+ *
+ * Delivery is at-least-once: if the process stops between the delivery and the
+ * deletion of a batch, that batch is delivered again by the next relay.
+ */
+public class OutboxRelay {
+
+  /**
+   * Maximum time to wait for a batch to be delivered before giving up (the batch
+   * is then delivered again on next poll)
+   */
+  private static final long DELIVERY_TIMEOUT_SECONDS = 30;
+
+  private static final Logger LOGGER = LogManager.getLogger(OutboxRelay.class);
+
+  private final OutboxAccessor outboxAccessor;
+  private final EventAccessor eventAccessor;
+  private final long pollIntervalMillis;
+  private final int batchSize;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Default constructor.
+   *
+   * @param outboxAccessor     the accessor to read and delete pending
+   *                           notifications (not null)
+   * @param eventAccessor      the accessor to retrieve the notified events and
+   *                           their participants (not null)
+   * @param pollIntervalMillis the delay between two polls of the outbox (in
+   *                           milliseconds, strictly positive)
+   * @param batchSize          the maximum number of notifications read at once
+   *                           (strictly positive)
+   * @throws IllegalArgumentException if any of the above preconditions is
+   *                                  violated
+   */
+  public OutboxRelay(OutboxAccessor outboxAccessor, EventAccessor eventAccessor, long pollIntervalMillis,
+      int batchSize) {
+    if (null == outboxAccessor || null == eventAccessor) {
+      throw new IllegalArgumentException("outbox and event accessors cannot be null");
+    }
+    if (pollIntervalMillis <= 0 || batchSize <= 0) {
+      throw new IllegalArgumentException(
+          "poll interval '" + pollIntervalMillis + "' and batch size '" + batchSize + "' must be strictly positive");
+    }
+    this.outboxAccessor = outboxAccessor;
+    this.eventAccessor = eventAccessor;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Start polling the outbox in the background (on a daemon thread). Has no
+   * effect if this relay is already started.
+   */
+  public synchronized void start() {
+    if (null != scheduler) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "outbox-relay");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::relayAll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    LOGGER.info("outbox relay started (poll every {} ms, batches of {})", pollIntervalMillis, batchSize);
+  }
+
+  /**
+   * Stop polling the outbox, after having delivered all pending notifications.
+   * Has no effect if this relay is not started.
+   */
+  public synchronized void stop() {
+    if (null == scheduler) {
+      return;
+    }
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    scheduler = null;
+    relayAll();
+    LOGGER.info("outbox relay stopped");
+  }
+
+  /**
+   * Deliver one batch of pending notifications (synchronously). The events of
+   * the batch are retrieved at once, and only the delivery of this batch is
+   * waited for (the coalescing window, if any, is closed right away).
+   *
+   * @return the number of delivered (and deleted) notifications
+   */
+  public int relayOnce() {
+    List<OutboxNotification> pending = outboxAccessor.getPendingNotifications(batchSize);
+    if (pending.isEmpty()) {
+      return 0;
+    }
+    Map<Long, Event> events = eventAccessor.getEventsAndParticipantsByIds(
+        pending.stream().map(OutboxNotification::getEventId).collect(Collectors.toList()));
+    if (null == events) {
+      LOGGER.warn("events of {} notifications not retrieved, they will be delivered on next poll", pending.size());
+      return 0;
+    }
+    List<CompletableFuture<Void>> deliveries = new ArrayList<>(pending.size());
+    for (OutboxNotification notification : pending) {
+      Event event = events.get(notification.getEventId());
+      if (null != event) {
+        deliveries.add(event.publishStatusChange(notification.getNewStatus()));
+      } else {
+        LOGGER.warn("event of notification {} does not exist anymore", notification);
+      }
+    }
+    NotificationDispatcher.getInstance().closeWindow();
+    try {
+      CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0])).get(DELIVERY_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS);
+    } catch (TimeoutException | ExecutionException e) {
+      LOGGER.warn("{} notifications not delivered in time, they will be delivered again", pending.size(), e);
+      return 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 0;
+    }
+    int deleted = outboxAccessor.deleteNotifications(
+        pending.stream().map(OutboxNotification::getNotificationId).collect(Collectors.toList()));
+    LOGGER.debug("relayed {} notifications", deleted);
+    return deleted;
+  }
+
+  /**
+   * Deliver batches of pending notifications until the outbox is empty (or a
+   * batch could not be delivered)
+   */
+  private void relayAll() {
+    try {
+      int relayed;
+      do {
+        relayed = relayOnce();
+      } while (relayed == batchSize);
+    } catch (RuntimeException e) {
+      // never let the scheduled task die, pending notifications stay in the outbox
+      LOGGER.error("unable to relay outbox notifications", e);
+    }
+  }
+}
@@ -27,43 +27,91 @@
 
 package uc.seng301.eventapp.util;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class to handle (stringified) date objects.
+ *
+ * Dates are parsed with immutable (thread-safe) {@link DateTimeFormatter}s that
+ * are built once, and the current date is read from a {@link Clock} that may be
+ * swapped (e.g., for a simulated time), so none of the methods of this class
+ * lock.
+ *
+ * The default format is parsed strictly, unlike the former SimpleDateFormat
+ * based parsing: the year must have four digits (e.g., 5/8/21 used to be read
+ * as year 21 and is now rejected) and dates that do not exist are rejected
+ * (e.g., 31/02/2021 used to be rolled over to 03/03/2021). Custom formats (see
+ * {@link #convertToDate(String, String)}) keep their time of day, if any, and
+ * adjust non existing dates to the last day of the month.
  */
 public class DateUtil {
 
-  private static DateUtil instance;
+  /**
+   * Value returned by {@link #toEpochMillis(String)} for dates that cannot be
+   * parsed
+   */
+  public static final long INVALID_DATE = Long.MIN_VALUE;
 
   /**
    * Default date format
    */
   private static final String DEFAULT_DATE_FORMAT = "dd/MM/yyyy";
+
+  /**
+   * Parser of the default date format, i.e. day and month on one or two digits
+   * and year on four digits, rejecting non existing dates (e.g., 31/02/2021)
+   */
+  private static final DateTimeFormatter DEFAULT_FORMATTER = new DateTimeFormatterBuilder()
+      .appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NOT_NEGATIVE).appendLiteral('/')
+      .appendValue(ChronoField.MONTH_OF_YEAR, 1, 2, SignStyle.NOT_NEGATIVE).appendLiteral('/')
+      .appendValue(ChronoField.YEAR, 4).toFormatter().withResolverStyle(ResolverStyle.STRICT);
+
   /**
-   * Current date to fake a clock
+   * Lazy and thread-safe initialisation of the unique instance (the JVM
+   * initialises this class on first access only)
    */
-  private Date currentDate;
+  private static final class Holder {
+    private static final DateUtil INSTANCE = new DateUtil();
+  }
+
+  private final Map<String, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+
+  /**
+   * Clock giving the current date, fixed by default (see
+   * {@link #changeCurrentDate(String)})
+   */
+  private volatile Clock clock;
 
   /**
    * Singleton (aka unique instance) => hide constructor
    */
   private DateUtil() {
-    currentDate = new Date();
+    clock = Clock.fixed(Instant.now(), ZoneId.systemDefault());
+    formatters.put(DEFAULT_DATE_FORMAT, DEFAULT_FORMATTER);
   }
 
   /**
-   * Retrieve a unique instance of a DateUtil (thread-safe)
+   * Retrieve a unique instance of a DateUtil (thread-safe, without locking)
    * 
    * @return this unique instance
    */
-  public static synchronized DateUtil getInstance() {
-    if (null == instance) {
-      instance = new DateUtil();
-    }
-    return instance;
+  public static DateUtil getInstance() {
+    return Holder.INSTANCE;
   }
 
   /**
@@ -81,20 +129,56 @@ public class DateUtil {
    * @return the current date for this simplified clock
    */
   public Date getCurrentDate() {
-    return (Date) currentDate.clone();
+    return new Date(clock.millis());
+  }
+
+  /**
+   * Get the current date as a number of milliseconds since the epoch (e.g., to
+   * compare it with other dates without creating any object)
+   *
+   * @return the current date for this simplified clock, in epoch millis
+   */
+  public long getCurrentTimeMillis() {
+    return clock.millis();
   }
 
   /**
-   * Update this instance current date to new date (thread safe)
+   * Get the clock giving the current date
+   *
+   * @return the current clock
+   */
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Replace the clock giving the current date (e.g., by a ticking clock, or an
+   * offset or simulated one in tests). Dates are parsed in the time zone of the
+   * clock.
+   *
+   * @param clock the new clock (not null)
+   * @throws IllegalArgumentException if given clock is null
+   */
+  public void setClock(Clock clock) {
+    if (null == clock) {
+      throw new IllegalArgumentException("clock cannot be null");
+    }
+    this.clock = clock;
+  }
+
+  /**
+   * Update this instance current date to new date (thread safe), i.e. fix the
+   * clock at the start of that day
    * 
    * @param newDate the new date (using {@link #getDefaultDateFormat})
    * @return true if the date could be updated to given date, false otherwise
    *         (e.g., wrong format)
    */
-  public synchronized boolean changeCurrentDate(String newDate) {
-    Date newCurrentDate = convertToDate(newDate);
+  public boolean changeCurrentDate(String newDate) {
+    ZoneId zone = clock.getZone();
+    LocalDate newCurrentDate = parse(DEFAULT_FORMATTER, newDate);
     if (null != newCurrentDate) {
-      currentDate = newCurrentDate;
+      clock = Clock.fixed(newCurrentDate.atStartOfDay(zone).toInstant(), zone);
       return true;
     }
     return false;
@@ -109,22 +193,74 @@ public class DateUtil {
    *         null if the given date can't be parsed acccording to default format
    */
   public Date convertToDate(String date) {
-    return convertToDate(DEFAULT_DATE_FORMAT, date);
+    long epochMillis = toEpochMillis(date);
+    return INVALID_DATE != epochMillis ? new Date(epochMillis) : null;
   }
 
   /**
    * Convert given string date in given format to a date object
    * 
-   * @param format a {@link SimpleDateFormat} string format
+   * @param format a {@link DateTimeFormatter} pattern (e.g., dd/MM/yyyy HH:mm)
    * @param date   a date compliant to given format
-   * @return the date object corresponding to given date in given format, null if
-   *         the given date can't be parsed acccording to given format
+   * @return the date object corresponding to given date in given format (at the
+   *         start of that day if the format has no time of day, in the time zone
+   *         of the clock if it has no zone), null if the given date can't be
+   *         parsed acccording to given format
    */
   public Date convertToDate(String format, String date) {
-    SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+    DateTimeFormatter formatter;
+    try {
+      formatter = formatters.computeIfAbsent(format, DateTimeFormatter::ofPattern);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (null == date) {
+      return null;
+    }
+    ZoneId zone = clock.getZone();
+    try {
+      TemporalAccessor parsed = formatter.parseBest(date.trim(), ZonedDateTime::from, LocalDateTime::from,
+          LocalDate::from);
+      if (parsed instanceof ZonedDateTime) {
+        return Date.from(((ZonedDateTime) parsed).toInstant());
+      }
+      if (parsed instanceof LocalDateTime) {
+        return Date.from(((LocalDateTime) parsed).atZone(zone).toInstant());
+      }
+      return Date.from(((LocalDate) parsed).atStartOfDay(zone).toInstant());
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Convert given string date using default {@link DateUtil.DATE_FORMAT} to the
+   * number of milliseconds since the epoch at the start of that day (e.g., to
+   * compare dates without creating any date object)
+   *
+   * @param date a date compliant to default format
+   * @return the start of given date in epoch millis, {@link #INVALID_DATE} if
+   *         the given date can't be parsed acccording to default format
+   */
+  public long toEpochMillis(String date) {
+    LocalDate localDate = parse(DEFAULT_FORMATTER, date);
+    return null != localDate ? localDate.atStartOfDay(clock.getZone()).toInstant().toEpochMilli() : INVALID_DATE;
+  }
+
+  /**
+   * Parse given string date with given formatter
+   *
+   * @param formatter a date formatter
+   * @param date      a date compliant to given formatter (may be null)
+   * @return the parsed date, null if the given date can't be parsed
+   */
+  private static LocalDate parse(DateTimeFormatter formatter, String date) {
+    if (null == date) {
+      return null;
+    }
     try {
-      return dateFormat.parse(date);
-    } catch (ParseException e) {
+      return LocalDate.parse(date.trim(), formatter);
+    } catch (DateTimeException e) {
       return null;
     }
   }
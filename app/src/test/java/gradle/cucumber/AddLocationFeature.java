@@ -27,11 +27,36 @@
 
 package gradle.cucumber;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.junit.jupiter.api.Assertions;
 import org.mockito.Mockito;
 
+import io.cucumber.java.After;
 import io.cucumber.java.Before;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
@@ -40,11 +65,20 @@ import uc.seng301.eventapp.accessor.EventAccessor;
 import uc.seng301.eventapp.accessor.ParticipantAccessor;
 import uc.seng301.eventapp.handler.EventHandler;
 import uc.seng301.eventapp.handler.EventHandlerImpl;
+import uc.seng301.eventapp.location.CachingLocationService;
+import uc.seng301.eventapp.location.GazetteerLocationService;
 import uc.seng301.eventapp.location.LocationService;
+import uc.seng301.eventapp.location.LocationServiceException;
 import uc.seng301.eventapp.location.LocationServiceResult;
+import uc.seng301.eventapp.location.NominatimQuery;
 import uc.seng301.eventapp.location.NominatimResult;
+import uc.seng301.eventapp.location.PersistentLocationService;
+import uc.seng301.eventapp.location.ResilientLocationService;
 import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.EventStatus;
 import uc.seng301.eventapp.model.Location;
+import uc.seng301.eventapp.model.ScheduledEvent;
+import uc.seng301.eventapp.util.DateUtil;
 
 public class AddLocationFeature {
 
@@ -57,12 +91,28 @@ public class AddLocationFeature {
   private EventAccessor eventAccessor;
   private EventHandler eventHandler;
   private LocationService mockNominatimQuery;
+  private HttpServer stubServer;
+  private AtomicInteger stubCalls;
+  private CountDownLatch stubAborted;
+  private Path geocodeFile;
+  private ResilientLocationService resilientLocationService;
+  private PersistentLocationService persistentLocationService;
+  private LocationService cachingLocationService;
+  private List<LocationServiceResult> retrievedLocations;
+  private List<Location> addedLocations;
+  private Map<String, LocationServiceResult> retrievedLocationsByName;
+  private Path gazetteerFile;
+  private LocationService gazetteerLocationService;
+  private Map<String, Long> locatedEventIds = new HashMap<>();
+  private List<Event> foundEvents;
 
   @Before
   public void setup() {
     Configuration configuration = new Configuration();
     configuration.configure();
     sessionFactory = configuration.buildSessionFactory();
+    // the schema is recreated for every scenario, so drop what previous ones cached
+    sessionFactory.getCache().evictAllRegions();
     eventAccessor = new EventAccessor(sessionFactory, new ParticipantAccessor(sessionFactory));
     eventHandler = new EventHandlerImpl(eventAccessor);
 
@@ -133,7 +183,339 @@ public class AddLocationFeature {
     Event retrievedEvent = eventAccessor.getEventById(eventId);
     Assertions.assertNotNull(retrievedEvent.getLocation());
     Assertions.assertEquals(retrievedEvent.getLocation().getName(), location);
-    Assertions.assertEquals(retrievedEvent.getLocation().getLatitude(), latitude);
-    Assertions.assertEquals(retrievedEvent.getLocation().getLongitude(), longitude);
+    Assertions.assertEquals(retrievedEvent.getLocation().getLatitude(), Double.valueOf(latitude));
+    Assertions.assertEquals(retrievedEvent.getLocation().getLongitude(), Double.valueOf(longitude));
+    Assertions.assertEquals(Location.geohash(Double.parseDouble(latitude), Double.parseDouble(longitude),
+        Location.GEOHASH_PRECISION), retrievedEvent.getLocation().getGeohash());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (null != stubServer) {
+      stubServer.stop(0);
+    }
+    if (null != persistentLocationService) {
+      persistentLocationService.close();
+      Files.deleteIfExists(geocodeFile);
+    }
+    if (null != gazetteerFile) {
+      Files.deleteIfExists(gazetteerFile);
+    }
+  }
+
+  //
+  // U2 - AC3, AC4, AC5, AC6, AC7 and AC8
+  //
+
+  @Given("The external API knows the city {string} at latitude {string} and longitude {string}")
+  public void the_external_api_knows_the_city_at_latitude_and_longitude(String city, String latitude,
+      String longitude) throws IOException {
+    // local stub of the Nominatim search endpoint, only knowing given city
+    String cityJson = "[{\"display_name\":\"" + city + "\",\"lat\":\"" + latitude + "\",\"lon\":\"" + longitude
+        + "\",\"type\":\"city\"}]";
+    startStubServer(exchange -> {
+      String query = exchange.getRequestURI().getQuery();
+      byte[] body = (query.toLowerCase().endsWith("q=" + city.toLowerCase()) ? cityJson : "[]")
+          .getBytes(StandardCharsets.UTF_8);
+      try {
+        // slow enough for concurrent lookups to overlap
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+  }
+
+  @Given("The external API fails with status {int}")
+  public void the_external_api_fails_with_status(Integer status) throws IOException {
+    startStubServer(exchange -> {
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+  }
+
+  @Given("The external API answers too slowly")
+  public void the_external_api_answers_too_slowly() throws IOException {
+    stubAborted = new CountDownLatch(1);
+    startStubServer(exchange -> {
+      try (OutputStream out = exchange.getResponseBody()) {
+        exchange.sendResponseHeaders(200, 0);
+        // an endless response, until the client goes away
+        for (int i = 0; i < 100; i++) {
+          out.write(' ');
+          out.flush();
+          Thread.sleep(100);
+        }
+      } catch (IOException e) {
+        stubAborted.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  @Given("Lookups are given up after {int} ms")
+  public void lookups_are_given_up_after_ms(Integer timeout) {
+    persistentLocationService.close();
+    startLocationServices(Duration.ofMillis(timeout), 1);
+  }
+
+  @When("The application restarts")
+  public void the_application_restarts() {
+    persistentLocationService.close();
+    startLocationServices();
+  }
+
+  @Given("The offline gazetteer knows the city {string} at latitude {string} and longitude {string}")
+  public void the_offline_gazetteer_knows_the_city_at_latitude_and_longitude(String city, String latitude,
+      String longitude) throws IOException {
+    gazetteerFile = Files.createTempFile("gazetteer", ".csv");
+    Files.write(gazetteerFile, List.of("name,latitude,longitude,display name", "Auckland,-36.852095,174.7631803",
+        city + "," + latitude + "," + longitude + "," + city + ", New Zealand", "Wellington,-41.2887953,174.7772114",
+        city + ",50.7356,-1.7784," + city + ", United Kingdom"));
+    gazetteerLocationService = new GazetteerLocationService(gazetteerFile, 1);
+    retrievedLocations = new ArrayList<>();
+  }
+
+  @When("I retrieve the location {string} from the offline gazetteer")
+  public void i_retrieve_the_location_from_the_offline_gazetteer(String name) {
+    retrievedLocations.add(gazetteerLocationService.getCityFromString(name));
+  }
+
+  @When("I retrieve the location {string} {int} times from {int} concurrent users")
+  public void i_retrieve_the_location_times_from_concurrent_users(String name, Integer times, Integer users)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(users);
+    List<Future<?>> lookups = new ArrayList<>();
+    for (int i = 0; i < times; i++) {
+      lookups.add(executor.submit(() -> retrievedLocations.add(cachingLocationService.getCityFromString(name))));
+    }
+    for (Future<?> lookup : lookups) {
+      lookup.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+  }
+
+  @When("I retrieve the locations {string} at once")
+  public void i_retrieve_the_locations_at_once(String names) {
+    List<String> queries = List.of(names.split(","));
+    retrievedLocationsByName = cachingLocationService.getCitiesFromStrings(queries);
+    Assertions.assertEquals(queries.stream().distinct().count(), retrievedLocationsByName.size());
+  }
+
+  @When("I add the location {string} to an event {int} time(s)")
+  public void i_add_the_location_to_an_event_times(String name, Integer times) {
+    // same fallback as the app when the location service is unavailable
+    addedLocations = new ArrayList<>();
+    for (int i = 0; i < times; i++) {
+      Location added;
+      try {
+        LocationServiceResult result = cachingLocationService.getCityFromString(name);
+        added = null != result ? new Location(result.getName(), result.getLatitude(), result.getLongitude())
+            : new Location(name);
+      } catch (LocationServiceException e) {
+        added = new Location(name);
+      }
+      addedLocations.add(added);
+    }
+  }
+
+  @Then("The external API has been called {int} time")
+  public void the_external_api_has_been_called_time(Integer calls) {
+    Assertions.assertEquals(calls, stubCalls.get());
+  }
+
+  @Then("All retrieved locations have latitude {string} and longitude {string}")
+  public void all_retrieved_locations_have_latitude_and_longitude(String latitude, String longitude) {
+    Assertions.assertFalse(retrievedLocations.isEmpty());
+    for (LocationServiceResult result : retrievedLocations) {
+      Assertions.assertNotNull(result);
+      Assertions.assertEquals(latitude, result.getLatitude());
+      Assertions.assertEquals(longitude, result.getLongitude());
+    }
+  }
+
+  @Then("The location {string} has been retrieved with latitude {string} and longitude {string}")
+  public void the_location_has_been_retrieved_with_latitude_and_longitude(String name, String latitude,
+      String longitude) {
+    LocationServiceResult result = retrievedLocationsByName.get(name);
+    Assertions.assertNotNull(result);
+    Assertions.assertEquals(latitude, result.getLatitude());
+    Assertions.assertEquals(longitude, result.getLongitude());
+  }
+
+  @Then("The location {string} has not been retrieved")
+  public void the_location_has_not_been_retrieved(String name) {
+    Assertions.assertTrue(retrievedLocationsByName.containsKey(name));
+    Assertions.assertNull(retrievedLocationsByName.get(name));
+  }
+
+  @Then("The lookup has timed out {int} time(s)")
+  public void the_lookup_has_timed_out_times(int timeouts) {
+    Assertions.assertEquals(timeouts, resilientLocationService.getTimeouts());
+  }
+
+  @Then("The external API request has been aborted")
+  public void the_external_api_request_has_been_aborted() throws InterruptedException {
+    // well before the end of the response
+    Assertions.assertTrue(stubAborted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Then("The circuit breaker is open")
+  public void the_circuit_breaker_is_open() {
+    Assertions.assertEquals(ResilientLocationService.CircuitState.OPEN, resilientLocationService.getCircuitState());
+    Assertions.assertEquals(1, resilientLocationService.getTransitionsTo(ResilientLocationService.CircuitState.OPEN));
+  }
+
+  @Then("All added locations have name {string} and no coordinates")
+  public void all_added_locations_have_name_and_no_coordinates(String name) {
+    Assertions.assertFalse(addedLocations.isEmpty());
+    for (Location added : addedLocations) {
+      Assertions.assertEquals(name, added.getName());
+      Assertions.assertNull(added.getLatitude());
+      Assertions.assertNull(added.getLongitude());
+    }
+  }
+
+  @Then("No location has been retrieved")
+  public void no_location_has_been_retrieved() {
+    Assertions.assertFalse(retrievedLocations.isEmpty());
+    for (LocationServiceResult result : retrievedLocations) {
+      Assertions.assertNull(result);
+    }
+  }
+
+  //
+  // U2 - AC9
+  //
+
+  @Given("The event {string} is located at latitude {string} and longitude {string}")
+  public void the_event_is_located_at_latitude_and_longitude(String name, String latitude, String longitude) {
+    Event located = eventHandler.createEvent(name, "an event near " + name, "07/08/2021", "meetup");
+    located.setLocation(new Location(name, latitude, longitude));
+    locatedEventIds.put(name, eventAccessor.persistEvent(located));
+  }
+
+  @Given("The event {string} is canceled")
+  public void the_event_is_canceled(String name) {
+    Assertions.assertEquals(1,
+        eventAccessor.updateEventsStatus(List.of(locatedEventIds.get(name)), EventStatus.CANCELED));
+  }
+
+  @When("I look for scheduled events within {int} km of latitude {string} and longitude {string}")
+  public void i_look_for_scheduled_events_within_km_of_latitude_and_longitude(Integer radius, String latitude,
+      String longitude) {
+    foundEvents = eventAccessor.getEventsWithinRadius(Double.parseDouble(latitude), Double.parseDouble(longitude),
+        radius, EventStatus.SCHEDULED);
+  }
+
+  @When("I look for the {int} nearest scheduled events to latitude {string} and longitude {string}")
+  public void i_look_for_the_nearest_scheduled_events_to_latitude_and_longitude(Integer count, String latitude,
+      String longitude) {
+    foundEvents = eventAccessor.getNearestEvents(Double.parseDouble(latitude), Double.parseDouble(longitude), count,
+        EventStatus.SCHEDULED);
+  }
+
+  @Then("The events found are {string}")
+  public void the_events_found_are(String names) {
+    Assertions.assertEquals(List.of(names.split(",")),
+        foundEvents.stream().map(Event::getName).collect(Collectors.toList()));
+  }
+
+  //
+  // U2 - AC10
+  //
+
+  @Given("There are {int} scheduled events located around latitude {string} and longitude {string}")
+  public void there_are_scheduled_events_located_around_latitude_and_longitude(int count, String latitude,
+      String longitude) {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      // spread over about 10 km
+      events.add(newLocatedEvent("located event " + i, Double.parseDouble(latitude) + (i % 100) * 0.001,
+          Double.parseDouble(longitude) + (i / 100) * 0.001));
+    }
+    Assertions.assertEquals(count, eventAccessor.persistEvents(events).size());
+  }
+
+  @When("{int} more events are located at latitude {string} and longitude {string} while the events are being indexed by location")
+  public void more_events_are_located_while_the_events_are_being_indexed_by_location(int count, String latitude,
+      String longitude) throws InterruptedException {
+    // the index is lazily loaded by the next query, while another thread keeps
+    // persisting located events
+    eventAccessor.invalidateLocationIndex();
+    CountDownLatch firstPersisted = new CountDownLatch(1);
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        eventAccessor.persistEvent(newLocatedEvent("concurrent located event " + i, Double.parseDouble(latitude),
+            Double.parseDouble(longitude)));
+        firstPersisted.countDown();
+      }
+    });
+    writer.start();
+    firstPersisted.await();
+    eventAccessor.getNearestEvents(0, 0, 1, EventStatus.SCHEDULED);
+    writer.join();
+  }
+
+  @Then("There are {int} scheduled events within {int} km of latitude {string} and longitude {string}")
+  public void there_are_scheduled_events_within_km_of_latitude_and_longitude(int count, int radius, String latitude,
+      String longitude) {
+    Assertions.assertEquals(count, eventAccessor.getEventsWithinRadius(Double.parseDouble(latitude),
+        Double.parseDouble(longitude), radius, EventStatus.SCHEDULED).size());
+  }
+
+  private Event newLocatedEvent(String name, double latitude, double longitude) {
+    Date date = new Date(DateUtil.getInstance().getCurrentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+    return new ScheduledEvent(name, "an event near " + name, date, eventAccessor.getEventTypeFromName("meetup"), 0.0,
+        new Location(name, latitude, longitude));
+  }
+
+  /**
+   * Start a local stub of the Nominatim search endpoint (counting its calls) and
+   * the location services on top of it
+   *
+   * @param handler the handler of the search requests
+   */
+  private void startStubServer(HttpHandler handler) throws IOException {
+    stubCalls = new AtomicInteger();
+    stubServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    stubServer.createContext("/search", exchange -> {
+      stubCalls.incrementAndGet();
+      handler.handle(exchange);
+    });
+    stubServer.setExecutor(Executors.newCachedThreadPool());
+    stubServer.start();
+    geocodeFile = Files.createTempFile("geocode", ".sqlite");
+    startLocationServices();
+    retrievedLocations = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  /**
+   * Build the location services as the app does, on top of the stub server
+   * (with short backoffs and a circuit opening after 3 consecutive failures)
+   */
+  private void startLocationServices() {
+    startLocationServices(Duration.ofSeconds(5), 2);
+  }
+
+  /**
+   * Build the location services as the app does, on top of the stub server
+   * (with given attempts, short backoffs and a circuit opening after 3
+   * consecutive failures)
+   *
+   * @param attemptTimeout the maximum duration of an attempt
+   * @param maxAttempts    the maximum number of attempts per lookup
+   */
+  private void startLocationServices(Duration attemptTimeout, int maxAttempts) {
+    resilientLocationService = new ResilientLocationService(
+        new NominatimQuery("http://localhost:" + stubServer.getAddress().getPort() + "/search"), attemptTimeout,
+        maxAttempts, Duration.ofMillis(10), Duration.ofMillis(10), 3, Duration.ofMinutes(1));
+    persistentLocationService = new PersistentLocationService(resilientLocationService, geocodeFile.toString());
+    cachingLocationService = new CachingLocationService(persistentLocationService);
   }
 }
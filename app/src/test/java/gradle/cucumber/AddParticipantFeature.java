@@ -18,8 +18,10 @@ import uc.seng301.eventapp.model.Participant;
 import uc.seng301.eventapp.util.DateUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class AddParticipantFeature {
 
@@ -38,6 +40,8 @@ public class AddParticipantFeature {
         Configuration configuration = new Configuration();
         configuration.configure();
         sessionFactory = configuration.buildSessionFactory();
+        // the schema is recreated for every scenario, so drop what previous ones cached
+        sessionFactory.getCache().evictAllRegions();
         participantAccesor = new ParticipantAccessor(sessionFactory);
         eventAccessor = new EventAccessor(sessionFactory, participantAccesor);
         eventHandler = new EventHandlerImpl(eventAccessor);
@@ -122,4 +126,52 @@ public class AddParticipantFeature {
         Assertions.assertThrows(IllegalArgumentException.class, () -> eventAccessor.persistEventAndParticipants(event));
     }
 
+    //
+    // U1 - AC4
+    //
+
+    @When("I add the participants {string} to the event at once")
+    public void i_add_the_participants_to_the_event_at_once(String names) {
+        List<Participant> participants = Arrays.stream(names.split(",")).map(Participant::new)
+                .collect(Collectors.toList());
+        new EventHandlerImpl(eventAccessor, participantAccesor).addParticipants(event, participants);
+    }
+
+    @Then("The participants {string} exist before the event is saved")
+    public void the_participants_exist_before_the_event_is_saved(String names) {
+        for (String name : names.split(",")) {
+            Participant created = participantAccesor.getParticipantByName(name);
+            Assertions.assertNotNull(created);
+            Assertions.assertEquals(created.getParticipantId(), event.getParticipants().stream()
+                    .filter(added -> name.equals(added.getName())).findFirst().orElseThrow().getParticipantId());
+        }
+    }
+
+    @Then("The participant {string} added to the event is the existing one")
+    public void the_participant_added_to_the_event_is_the_existing_one(String name) {
+        Assertions.assertEquals(participant.getParticipantId(), event.getParticipants().stream()
+                .filter(added -> name.equals(added.getName())).findFirst().orElseThrow().getParticipantId());
+    }
+
+    @When("The event is saved")
+    public void the_event_is_saved() {
+        Assertions.assertEquals(eventId, eventAccessor.persistEventAndParticipants(event));
+    }
+
+    @Then("The event has the participants {string}")
+    public void the_event_has_the_participants(String names) {
+        Assertions.assertEquals(Arrays.stream(names.split(",")).sorted().collect(Collectors.toList()),
+                eventAccessor.getEventAndParticipantsById(eventId).getParticipants().stream().map(Participant::getName)
+                        .sorted().collect(Collectors.toList()));
+    }
+
+    //
+    // U1 - AC5
+    //
+
+    @Then("The event has {int} participants before it is saved")
+    public void the_event_has_participants_before_it_is_saved(int count) {
+        Assertions.assertEquals(count, event.getParticipants().size());
+    }
+
 }
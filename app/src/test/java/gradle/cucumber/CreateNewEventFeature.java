@@ -27,12 +27,22 @@
 
 package gradle.cucumber;
 
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.junit.jupiter.api.Assertions;
 
+import io.cucumber.java.After;
 import io.cucumber.java.Before;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
@@ -42,12 +52,18 @@ import uc.seng301.eventapp.accessor.ParticipantAccessor;
 import uc.seng301.eventapp.handler.EventHandler;
 import uc.seng301.eventapp.handler.EventHandlerImpl;
 import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.model.EventSummary;
+import uc.seng301.eventapp.model.EventType;
+import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.model.ScheduledEvent;
 import uc.seng301.eventapp.util.DateUtil;
 
 public class CreateNewEventFeature {
 
   private SessionFactory sessionFactory;
   private EventAccessor eventAccessor;
+  private ParticipantAccessor participantAccessor;
   private EventHandler eventHandler;
 
   private Event firstEvent;
@@ -60,14 +76,30 @@ public class CreateNewEventFeature {
 
   private String firstEventName;
   private String eventDescription;
+  private List<EventSummary> retrievedEvents;
+  private int scheduledEvents;
+  private Clock clock;
+  private Event createdEvent;
+  private List<List<Event>> retrievedPages;
+  private List<EventType> retrievedTypes;
 
   @Before
   public void setup() {
     Configuration configuration = new Configuration();
     configuration.configure();
     sessionFactory = configuration.buildSessionFactory();
-    eventAccessor = new EventAccessor(sessionFactory, new ParticipantAccessor(sessionFactory));
+    // the schema is recreated for every scenario, so drop what previous ones cached
+    sessionFactory.getCache().evictAllRegions();
+    participantAccessor = new ParticipantAccessor(sessionFactory);
+    eventAccessor = new EventAccessor(sessionFactory, participantAccessor);
     eventHandler = new EventHandlerImpl(eventAccessor);
+    clock = DateUtil.getInstance().getClock();
+  }
+
+  @After
+  public void tearDown() {
+    // the calendar is shared by all scenarios
+    DateUtil.getInstance().setClock(clock);
   }
 
   //
@@ -173,5 +205,258 @@ public class CreateNewEventFeature {
     Assertions.assertThrows(IllegalArgumentException.class, () -> eventHandler.createEvent("Event to far in the future", "some description", secondEventDate.toString(), "some type"));
   }
 
+  //
+  // U1 - AC5
+  //
+
+  @Given("The event with name {string} has been canceled")
+  public void the_event_with_name_has_been_canceled(String name) {
+    EventSummary summary = eventAccessor.getEventsBetween(new Date(0), new Date(Long.MAX_VALUE), null).stream()
+        .filter(event -> name.equals(event.getName())).findFirst().orElseThrow();
+    Assertions.assertEquals(1, eventAccessor.updateEventsStatus(List.of(summary.getEventId()), EventStatus.CANCELED));
+  }
+
+  @When("I retrieve the events with status {string} between {string} and {string}")
+  public void i_retrieve_the_events_with_status_between_and(String status, String from, String to) {
+    retrievedEvents = eventAccessor.getEventsBetween(DateUtil.getInstance().convertToDate(from),
+        DateUtil.getInstance().convertToDate(to), EventStatus.valueOf(status));
+  }
+
+  @When("I retrieve all events between {string} and {string}")
+  public void i_retrieve_all_events_between_and(String from, String to) {
+    retrievedEvents = eventAccessor.getEventsBetween(DateUtil.getInstance().convertToDate(from),
+        DateUtil.getInstance().convertToDate(to), null);
+  }
+
+  @Then("The events retrieved are {string}")
+  public void the_events_retrieved_are(String names) {
+    Assertions.assertEquals(List.of(names.split(",")),
+        retrievedEvents.stream().map(EventSummary::getName).collect(Collectors.toList()));
+  }
+
+  //
+  // U1 - AC6
+  //
+
+  @Given("There are {int} scheduled events")
+  public void there_are_scheduled_events(int count) {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      events.add(newScheduledEvent("scheduled event " + i));
+    }
+    Assertions.assertEquals(count, eventAccessor.persistEvents(events).size());
+    scheduledEvents = count;
+  }
+
+  @When("{int} more events are scheduled while the scheduled events are being indexed")
+  public void more_events_are_scheduled_while_the_scheduled_events_are_being_indexed(int count)
+      throws InterruptedException {
+    // the index is lazily loaded by the next drain, while another thread keeps
+    // persisting events
+    eventAccessor.invalidateScheduledEventIndex();
+    CountDownLatch firstPersisted = new CountDownLatch(1);
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        eventAccessor.persistEvent(newScheduledEvent("concurrent event " + i));
+        firstPersisted.countDown();
+      }
+    });
+    writer.start();
+    firstPersisted.await();
+    Assertions.assertTrue(eventAccessor.drainDueEventIds(new Date(0)).isEmpty());
+    writer.join();
+    scheduledEvents += count;
+  }
+
+  @Then("All scheduled events are due once their date has passed")
+  public void all_scheduled_events_are_due_once_their_date_has_passed() {
+    Assertions.assertEquals(scheduledEvents, eventAccessor.drainDueEventIds(new Date(Long.MAX_VALUE)).size());
+  }
+
+  //
+  // U1 - AC7
+  //
+
+  @Then("I cannot create the events {string} at once")
+  public void i_cannot_create_the_events_at_once(String names) {
+    List<Event> events = Arrays.stream(names.split(",")).map(this::newScheduledEvent).collect(Collectors.toList());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> eventAccessor.persistEvents(events));
+    for (String name : names.split(",")) {
+      Assertions.assertEquals("SENG301 Lab 1".equals(name), eventAccessor.eventExistsWithName(name));
+    }
+  }
+
+  @Then("No event is created when creating the events {string} with participant {string} fails")
+  public void no_event_is_created_when_creating_the_events_with_participant_fails(String names,
+      String participantName) {
+    List<Event> events = Arrays.stream(names.split(",")).map(this::newScheduledEvent).collect(Collectors.toList());
+    events.forEach(event -> event.addParticipant(new Participant(participantName)));
+    // the type of the last event has not been saved, so the transaction fails on
+    // commit, after the other events and the participant have been saved
+    events.get(events.size() - 1).setEventType(new EventType("unsaved type"));
+    Assertions.assertTrue(eventAccessor.persistEvents(events).isEmpty());
+    for (String name : names.split(",")) {
+      Assertions.assertFalse(eventAccessor.eventExistsWithName(name));
+    }
+    Assertions.assertNull(participantAccessor.getParticipantByName(participantName));
+  }
 
+  @When("I create the events {string} at once with participant {string}")
+  public void i_create_the_events_at_once_with_participant(String names, String participantName) {
+    List<Event> events = Arrays.stream(names.split(",")).map(this::newScheduledEvent).collect(Collectors.toList());
+    events.forEach(event -> event.addParticipant(new Participant(participantName)));
+    List<Long> ids = eventAccessor.persistEvents(events);
+    Assertions.assertEquals(events.stream().map(Event::getEventId).collect(Collectors.toList()), ids);
+  }
+
+  @Then("The events {string} exist")
+  public void the_events_exist(String names) {
+    for (String name : names.split(",")) {
+      Assertions.assertTrue(eventAccessor.eventExistsWithName(name));
+    }
+  }
+
+  @Then("The participant {string} exists")
+  public void the_participant_exists(String participantName) {
+    Assertions.assertNotNull(participantAccessor.getParticipantByName(participantName));
+  }
+
+  //
+  // U1 - AC8
+  //
+
+  @Given("The calendar is on {word}")
+  public void the_calendar_is_on(String date) {
+    Assertions.assertTrue(DateUtil.getInstance().changeCurrentDate(date));
+  }
+
+  @When("I add an event with name {string} on {word}")
+  public void i_add_an_event_with_name_on(String name, String date) {
+    try {
+      createdEvent = eventHandler.createEvent(name, "some description", date, "some type");
+    } catch (IllegalArgumentException e) {
+      createdEvent = null;
+    }
+  }
+
+  @Then("The event is created")
+  public void the_event_is_created() {
+    Assertions.assertNotNull(createdEvent);
+  }
+
+  @Then("The event is rejected")
+  public void the_event_is_rejected() {
+    Assertions.assertNull(createdEvent);
+  }
+
+  //
+  // U1 - AC9
+  //
+
+  @Then("The date {string} in format {string} is at {word}")
+  public void the_date_in_format_is_at(String date, String format, String time) {
+    Date converted = DateUtil.getInstance().convertToDate(format, date);
+    Assertions.assertNotNull(converted);
+    Assertions.assertEquals(LocalTime.parse(time),
+        converted.toInstant().atZone(DateUtil.getInstance().getClock().getZone()).toLocalTime());
+  }
+
+  @Then("The date {string} in format {string} cannot be converted")
+  public void the_date_in_format_cannot_be_converted(String date, String format) {
+    Assertions.assertNull(DateUtil.getInstance().convertToDate(format, date));
+  }
+
+  //
+  // U1 - AC10
+  //
+
+  @When("I retrieve the events with status {string} in pages of {int}")
+  public void i_retrieve_the_events_with_status_in_pages_of(String status, int limit) {
+    retrievedPages = retrievePages(EventStatus.valueOf(status), limit);
+  }
+
+  @When("I retrieve all events in pages of {int}")
+  public void i_retrieve_all_events_in_pages_of(int limit) {
+    retrievedPages = retrievePages(null, limit);
+  }
+
+  @Then("The pages retrieved are {string}")
+  public void the_pages_retrieved_are(String pages) {
+    Assertions.assertEquals(List.of(pages.split(";")), retrievedPages.stream()
+        .map(page -> page.stream().map(Event::getName).collect(Collectors.joining(","))).collect(Collectors.toList()));
+  }
+
+  private List<List<Event>> retrievePages(EventStatus status, int limit) {
+    List<List<Event>> pages = new ArrayList<>();
+    Long afterId = null;
+    List<Event> page = eventAccessor.getEventsWithStatusAfter(status, afterId, limit);
+    while (!page.isEmpty()) {
+      for (Event event : page) {
+        // each page is ordered by id and starts right after the last id of the previous one
+        Assertions.assertTrue(null == afterId || event.getEventId() > afterId);
+        afterId = event.getEventId();
+      }
+      pages.add(page);
+      page = eventAccessor.getEventsWithStatusAfter(status, afterId, limit);
+    }
+    return pages;
+  }
+
+  //
+  // U1 - AC11
+  //
+
+  @When("I retrieve the event type {string} {int} time(s)")
+  public void i_retrieve_the_event_type_times(String name, int times) {
+    retrievedTypes = new ArrayList<>();
+    for (int i = 0; i < times; i++) {
+      retrievedTypes.add(eventAccessor.getEventTypeFromName(name));
+    }
+  }
+
+  @When("I retrieve the event type {string} from {int} threads at once")
+  public void i_retrieve_the_event_type_from_threads_at_once(String name, int count) throws InterruptedException {
+    retrievedTypes = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Thread reader = new Thread(() -> {
+        try {
+          start.await();
+          retrievedTypes.add(eventAccessor.getEventTypeFromName(name));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+    start.countDown();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    Assertions.assertEquals(count, retrievedTypes.size());
+  }
+
+  @Then("The same event type {string} is retrieved each time")
+  public void the_same_event_type_is_retrieved_each_time(String name) {
+    EventType first = retrievedTypes.get(0);
+    Assertions.assertNotNull(first.getEventTypeId());
+    Assertions.assertEquals(name, first.getName());
+    for (EventType type : retrievedTypes) {
+      Assertions.assertEquals(first.getEventTypeId(), type.getEventTypeId());
+    }
+  }
+
+  @Then("The event types have been retrieved from the database {int} time(s) and from the cache {int} time(s)")
+  public void the_event_types_have_been_retrieved_from_the_database_and_from_the_cache(int misses, int hits) {
+    Assertions.assertEquals(misses, eventAccessor.getEventTypeCacheMisses());
+    Assertions.assertEquals(hits, eventAccessor.getEventTypeCacheHits());
+  }
+
+  private Event newScheduledEvent(String name) {
+    EventType type = eventAccessor.getEventTypeFromName("some type");
+    Date date = new Date(DateUtil.getInstance().getCurrentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+    return new ScheduledEvent(name, "some description", date, type, 0.0, null);
+  }
 }
@@ -1,5 +1,6 @@
 package gradle.cucumber;
 
+import io.cucumber.java.After;
 import io.cucumber.java.Before;
 import io.cucumber.java.en.And;
 import io.cucumber.java.en.Given;
@@ -10,19 +11,29 @@ import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.junit.jupiter.api.Assertions;
 import uc.seng301.eventapp.accessor.EventAccessor;
+import uc.seng301.eventapp.accessor.OutboxAccessor;
 import uc.seng301.eventapp.accessor.ParticipantAccessor;
 import uc.seng301.eventapp.handler.EventHandler;
 import uc.seng301.eventapp.handler.EventHandlerImpl;
+import uc.seng301.eventapp.handler.StatusTransitionReport;
 import uc.seng301.eventapp.model.Event;
 import uc.seng301.eventapp.model.EventStatus;
 import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.notification.NotificationCoalescer;
+import uc.seng301.eventapp.notification.NotificationDispatcher;
+import uc.seng301.eventapp.notification.OutboxRelay;
 import uc.seng301.eventapp.util.DateUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class NotifyParticipantsFeature {
 
@@ -35,6 +46,12 @@ public class NotifyParticipantsFeature {
     private Participant participant;
     private Long eventId;
     private String eventDate;
+    private Clock clock;
+    private final Map<String, Long> eventIds = new HashMap<>();
+    private StatusTransitionReport report;
+    private OutboxAccessor outboxAccessor;
+    private int relayed;
+    private Event observed;
 
     private final PrintStream standardOut = System.out;
     private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
@@ -46,10 +63,22 @@ public class NotifyParticipantsFeature {
         configuration.configure();
         System.setOut(new PrintStream(outputStreamCaptor));
         sessionFactory = configuration.buildSessionFactory();
+        // the schema is recreated for every scenario, so drop what previous ones cached
+        sessionFactory.getCache().evictAllRegions();
         participantAccesor = new ParticipantAccessor(sessionFactory);
         eventAccessor = new EventAccessor(sessionFactory, participantAccesor);
         eventHandler = new EventHandlerImpl(eventAccessor);
+        outboxAccessor = new OutboxAccessor(sessionFactory);
         eventDate = "07/09/2021";
+        clock = DateUtil.getInstance().getClock();
+    }
+
+    @After
+    public void tearDown() {
+        // the calendar and the dispatcher are shared by all scenarios
+        DateUtil.getInstance().setClock(clock);
+        NotificationDispatcher.getInstance().disableCoalescing();
+        NotificationDispatcher.getInstance().setOutboxEnabled(false);
     }
 
     @Given("There is an event with name {string} with a participant named {string}")
@@ -70,6 +99,8 @@ public class NotifyParticipantsFeature {
 
     @Then("A notification containing the event name and new status is shown")
     public void a_notification_containing_the_event_name_and_new_status_is_shown() {
+        // participants are notified asynchronously
+        NotificationDispatcher.getInstance().flush();
         String lines[] = outputStreamCaptor.toString().split("\\r?\\n");
         Assertions.assertEquals("SENG301 Asg 3 updates its status to PAST", lines[0]);
     }
@@ -78,6 +109,8 @@ public class NotifyParticipantsFeature {
 
     @Then("A message containing my name, the event name and new status is shown")
     public void a_message_containing_my_name_the_event_name_and_new_status_is_shown() {
+        // participants are notified asynchronously
+        NotificationDispatcher.getInstance().flush();
         String lines[] = outputStreamCaptor.toString().split("\\r?\\n");
         Assertions.assertEquals("Bob Jones: the event SENG301 Asg 3 has updated its status to PAST", lines[1]);
     }
@@ -110,4 +143,152 @@ public class NotifyParticipantsFeature {
         Assertions.assertEquals(eventAccessor.getEventAndParticipantsById(eventId).getParticipants().size(), 0);
     }
 
+    @Given("There is an event with name {string} on {string} with a participant named {string}")
+    public void there_is_an_event_with_name_on_with_a_participant_named(String name, String date, String participantName) {
+        Event scheduled = eventHandler.createEvent(name, "some description", date, "some type");
+        scheduled.addParticipant(new Participant(participantName));
+        eventIds.put(name, eventAccessor.persistEventAndParticipants(scheduled));
+        Assertions.assertNotNull(eventIds.get(name));
+    }
+
+    @Given("The event with name {string} is canceled")
+    public void the_event_with_name_is_canceled(String name) {
+        Assertions.assertEquals(1, eventAccessor.updateEventsStatus(List.of(eventIds.get(name)), EventStatus.CANCELED));
+    }
+
+    @When("The calendar moves to {string} and the events are refreshed")
+    public void the_calendar_moves_to_and_the_events_are_refreshed(String date) {
+        Assertions.assertTrue(DateUtil.getInstance().changeCurrentDate(date));
+        report = eventHandler.refreshEvents();
+        // participants are notified asynchronously
+        NotificationDispatcher.getInstance().flush();
+    }
+
+    @Then("{int} event(s) is/are reported as moved to PAST")
+    public void event_is_reported_as_moved_to_past(int count) {
+        Assertions.assertEquals(EventStatus.PAST, report.getNewStatus());
+        Assertions.assertEquals(count, report.getTransitionedEvents());
+    }
+
+    @Then("The events with status {word} are {string}")
+    public void the_events_with_status_are(String status, String names) {
+        Assertions.assertEquals(Arrays.asList(names.split(",")), eventAccessor
+                .getAllEventsWithStatus(EventStatus.valueOf(status)).stream().map(Event::getName).collect(Collectors.toList()));
+    }
+
+    @Then("Only {string} is notified that {string} has updated its status to PAST")
+    public void only_is_notified_that_has_updated_its_status_to_past(String participantName, String name) {
+        List<String> notifications = Arrays.stream(outputStreamCaptor.toString().split("\\r?\\n"))
+                .filter(line -> line.contains(": the event ")).collect(Collectors.toList());
+        Assertions.assertEquals(List.of(participantName + ": the event " + name + " has updated its status to PAST"),
+                notifications);
+    }
+
+    @Given("Notifications are coalesced in windows of {int} changes")
+    public void notifications_are_coalesced_in_windows_of_changes(int maxChanges) {
+        // long enough for the window to be closed by the dispatcher flush only
+        NotificationDispatcher.getInstance().enableCoalescing(60000, maxChanges);
+    }
+
+    @Then("{string} receives one digest of {string} updated to PAST")
+    public void receives_one_digest_of_updated_to_past(String participantName, String names) {
+        List<String> digests = Arrays.stream(outputStreamCaptor.toString().split("\\r?\\n"))
+                .filter(line -> line.startsWith(participantName + ": ")).collect(Collectors.toList());
+        String[] events = names.split(",");
+        Assertions.assertEquals(List.of(participantName + ": " + events.length + " events have updated their status: "
+                + Arrays.stream(events).map(name -> name + " (PAST)").collect(Collectors.joining(", "))), digests);
+    }
+
+    @Given("The coalescer has been shut down")
+    public void the_coalescer_has_been_shut_down() {
+        // as if coalescing was disabled while status changes are being dispatched
+        NotificationDispatcher.getInstance().getCoalescer().shutdown();
+    }
+
+    @Then("{int} status changes are delivered in {int} digests, a compression ratio of {double}")
+    public void status_changes_are_delivered_in_digests_a_compression_ratio_of(int changes, int digests, double ratio) {
+        NotificationCoalescer coalescer = NotificationDispatcher.getInstance().getCoalescer();
+        Assertions.assertEquals(changes, coalescer.getDeliveredChanges());
+        Assertions.assertEquals(digests, coalescer.getDeliveredDigests());
+        Assertions.assertEquals(ratio, coalescer.getCompressionRatio(), 0.001);
+        Assertions.assertEquals(0, coalescer.getBufferedChanges());
+    }
+
+    @Given("Notifications go through the outbox")
+    public void notifications_go_through_the_outbox() {
+        NotificationDispatcher.getInstance().setOutboxEnabled(true);
+    }
+
+    @When("The events {string} are saved with status PAST")
+    public void the_events_are_saved_with_status_past(String names) {
+        for (String name : names.split(",")) {
+            Event past = eventHandler.updateEventStatus(eventAccessor.getEventAndParticipantsById(eventIds.get(name)),
+                    EventStatus.PAST, null);
+            Assertions.assertEquals(EventStatus.PAST, past.getPendingNotification());
+            Assertions.assertEquals(eventIds.get(name), eventAccessor.persistEventAndParticipants(past, EventStatus.PAST));
+        }
+    }
+
+    @Then("{int} notifications are pending in the outbox")
+    public void notifications_are_pending_in_the_outbox(int count) {
+        Assertions.assertEquals(count, outboxAccessor.getPendingNotifications(100).size());
+    }
+
+    @Then("Nobody is notified")
+    public void nobody_is_notified() {
+        NotificationDispatcher.getInstance().flush();
+        Assertions.assertEquals("", outputStreamCaptor.toString());
+    }
+
+    @When("The outbox is relayed")
+    public void the_outbox_is_relayed() {
+        relayed = new OutboxRelay(outboxAccessor, eventAccessor, 1000, 100).relayOnce();
+    }
+
+    @When("The outbox is relayed but the delivered notifications cannot be removed")
+    public void the_outbox_is_relayed_but_the_delivered_notifications_cannot_be_removed() {
+        // as if the relay stopped right after having delivered the notifications
+        OutboxAccessor failingAccessor = new OutboxAccessor(sessionFactory) {
+            @Override
+            public int deleteNotifications(List<Long> notificationIds) {
+                return 0;
+            }
+        };
+        relayed = new OutboxRelay(failingAccessor, eventAccessor, 1000, 100).relayOnce();
+    }
+
+    @Then("{int} notifications are relayed")
+    public void notifications_are_relayed(int count) {
+        Assertions.assertEquals(count, relayed);
+    }
+
+    @Then("{string} is notified {int} time(s) that {string} has updated its status to PAST")
+    public void is_notified_times_that_has_updated_its_status_to_past(String participantName, int times, String name) {
+        // the relay only returns once its notifications have been delivered
+        String notification = participantName + ": the event " + name + " has updated its status to PAST";
+        Assertions.assertEquals(times, Arrays.stream(outputStreamCaptor.toString().split("\\r?\\n"))
+                .filter(notification::equals).count());
+    }
+
+    @When("{string} observes the event {string} again")
+    public void observes_the_event_again(String participantName, String name) {
+        observed = eventAccessor.getEventAndParticipantsById(eventIds.get(name));
+        // another instance of the same (persisted) participant
+        observed.attach(participantAccesor.getParticipantByName(participantName));
+    }
+
+    @When("The participants of event {string} are notified {int} times that it has moved to PAST")
+    public void the_participants_of_event_are_notified_times_that_it_has_moved_to_past(String name, int times) {
+        Assertions.assertEquals(name, observed.getName());
+        for (int i = 0; i < times; i++) {
+            observed.publishStatusChange(EventStatus.PAST).join();
+        }
+    }
+
+    @Then("The event {string} is observed by {int} participant(s)")
+    public void the_event_is_observed_by_participants(String name, int count) {
+        Assertions.assertEquals(name, observed.getName());
+        Assertions.assertEquals(count, observed.getListenerCount());
+    }
+
 }
@@ -46,3 +46,73 @@ Feature: U1 - Create a new event
     Given There is no events with name "Event in the past" and "Event to far in the future"
     When I want to set the first event date to "07/08/2022" and the second to "01/01/2000"
     Then I expect an exception that disallow me to create any of those
+
+  Scenario: AC5 - Retrieve the events of a given status within a date range
+    Given The calendar is on 01/06/2021
+    And There is an event with name "SENG301 Lab 1" and date "05/08/2021"
+    And There is an event with name "SENG301 Lab 2" and date "12/08/2021"
+    And There is an event with name "SENG301 Lab 3" and date "19/08/2021"
+    And There is an event with name "SENG301 Lab 4" and date "26/08/2021"
+    And The event with name "SENG301 Lab 2" has been canceled
+    When I retrieve the events with status "SCHEDULED" between "06/08/2021" and "26/08/2021"
+    Then The events retrieved are "SENG301 Lab 3"
+    When I retrieve all events between "05/08/2021" and "20/08/2021"
+    Then The events retrieved are "SENG301 Lab 1,SENG301 Lab 2,SENG301 Lab 3"
+
+  Scenario: AC6 - Events scheduled while the scheduled events are being indexed are not missed
+    Given There are 2000 scheduled events
+    When 50 more events are scheduled while the scheduled events are being indexed
+    Then All scheduled events are due once their date has passed
+
+  Scenario: AC7 - Several events are created at once, or none of them
+    Given The calendar is on 01/06/2021
+    And There is an event with name "SENG301 Lab 1" and date "05/08/2021"
+    Then I cannot create the events "SENG301 Lab 2,SENG301 Lab 2" at once
+    And I cannot create the events "SENG301 Lab 2,SENG301 Lab 1" at once
+    And No event is created when creating the events "SENG301 Lab 2,SENG301 Lab 3" with participant "Alice Smith" fails
+    When I create the events "SENG301 Lab 2,SENG301 Lab 3" at once with participant "Alice Smith"
+    Then The events "SENG301 Lab 1,SENG301 Lab 2,SENG301 Lab 3" exist
+    And The participant "Alice Smith" exists
+
+  Scenario Outline: AC8 - The event date must exist in the calendar, with a four-digit year, from today on and no later than a year
+    Given The calendar is on <today>
+    When I add an event with name "SENG301 Lab 1" on <date>
+    Then The event is <outcome>
+
+    Examples:
+      | today      | date       | outcome  |
+      | 01/06/2021 | 5/8/2021   | created  |
+      | 01/06/2021 | 05/08/2021 | created  |
+      | 01/06/2021 | 01/06/2021 | created  |
+      | 01/06/2021 | 01/06/2022 | created  |
+      | 01/03/2023 | 29/02/2024 | created  |
+      | 01/06/2021 | 5/8/21     | rejected |
+      | 01/06/2021 | 31/02/2022 | rejected |
+      | 01/06/2021 | 29/02/2022 | rejected |
+      | 01/06/2021 | 31/05/2021 | rejected |
+      | 01/06/2021 | 02/06/2022 | rejected |
+
+  Scenario: AC9 - Dates in a custom format keep their time of day
+    Then The date "05/08/2021 14:30" in format "dd/MM/yyyy HH:mm" is at 14:30
+    And The date "05/08/2021" in format "dd/MM/yyyy" is at 00:00
+    And The date "5/8/21 14:30" in format "dd/MM/yyyy HH:mm" cannot be converted
+
+  Scenario: AC10 - Retrieve the events of a given status page by page
+    Given The calendar is on 01/06/2021
+    And There is an event with name "SENG301 Lab 1" and date "05/08/2021"
+    And There is an event with name "SENG301 Lab 2" and date "12/08/2021"
+    And There is an event with name "SENG301 Lab 3" and date "19/08/2021"
+    And There is an event with name "SENG301 Lab 4" and date "26/08/2021"
+    And There is an event with name "SENG301 Lab 5" and date "02/09/2021"
+    And The event with name "SENG301 Lab 2" has been canceled
+    When I retrieve the events with status "SCHEDULED" in pages of 2
+    Then The pages retrieved are "SENG301 Lab 1,SENG301 Lab 3;SENG301 Lab 4,SENG301 Lab 5"
+    When I retrieve all events in pages of 3
+    Then The pages retrieved are "SENG301 Lab 1,SENG301 Lab 2,SENG301 Lab 3;SENG301 Lab 4,SENG301 Lab 5"
+
+  Scenario: AC11 - Event types are created once, then retrieved by name from the cache
+    When I retrieve the event type "lab" 3 times
+    Then The same event type "lab" is retrieved each time
+    And The event types have been retrieved from the database 1 time and from the cache 2 times
+    When I retrieve the event type "tutorial" from 8 threads at once
+    Then The same event type "tutorial" is retrieved each time
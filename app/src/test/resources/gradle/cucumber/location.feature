@@ -37,4 +37,72 @@ Feature: U2 - Add location to events from external API
     When I add a location with name "Christchurch"
     And I retrieve the full description and geolocalisation coordinates for location "Christchurch" from an external API
     Then The retrieved description, latitude and longitude are added to the location
-    And The event is persisted with the updated location
\ No newline at end of file
+    And The event is persisted with the updated location
+
+  Scenario: AC3 - Retrieving the same location again does not call the external API again
+    Given The external API knows the city "Christchurch" at latitude "-43.530955" and longitude "172.6366455"
+    When I retrieve the location "Christchurch" 5 times from 5 concurrent users
+    And I retrieve the location " CHRISTCHURCH " 2 times from 1 concurrent users
+    Then The external API has been called 1 time
+    And All retrieved locations have latitude "-43.530955" and longitude "172.6366455"
+
+  Scenario: AC4 - Retrieving an unknown location again does not call the external API again
+    Given The external API knows the city "Christchurch" at latitude "-43.530955" and longitude "172.6366455"
+    When I retrieve the location "Nowhere" 3 times from 1 concurrent users
+    Then The external API has been called 1 time
+    And No location has been retrieved
+
+  Scenario: AC5 - Retrieved locations are still known after a restart
+    Given The external API knows the city "Christchurch" at latitude "-43.530955" and longitude "172.6366455"
+    And I retrieve the location "Christchurch" 1 times from 1 concurrent users
+    When The application restarts
+    And I retrieve the location "christchurch" 1 times from 1 concurrent users
+    Then The external API has been called 1 time
+    And All retrieved locations have latitude "-43.530955" and longitude "172.6366455"
+
+  Scenario: AC6 - Retrieving many locations at once only looks each of them up once
+    Given The external API knows the city "Christchurch" at latitude "-43.530955" and longitude "172.6366455"
+    When I retrieve the locations "Christchurch,Nowhere, christchurch,Christchurch,Nowhere" at once
+    Then The external API has been called 2 time
+    And The location " christchurch" has been retrieved with latitude "-43.530955" and longitude "172.6366455"
+    And The location "Nowhere" has not been retrieved
+
+  Scenario: AC7 - Retrieve location coordinates from an offline gazetteer
+    Given The offline gazetteer knows the city "Christchurch" at latitude "-43.530955" and longitude "172.6366455"
+    When I retrieve the location " christchurch" from the offline gazetteer
+    And I retrieve the location "Christchurch, New Zealand" from the offline gazetteer
+    And I retrieve the location "Christchrch" from the offline gazetteer
+    Then All retrieved locations have latitude "-43.530955" and longitude "172.6366455"
+
+  Scenario: AC8 - Locations are kept as typed while the external API is failing
+    Given The external API fails with status 500
+    When I add the location "Christchurch" to an event 6 times
+    Then The external API has been called 3 time
+    And The circuit breaker is open
+    And All added locations have name "Christchurch" and no coordinates
+
+  Scenario: AC9 - Retrieve the scheduled events near a location
+    Given The calendar is on 01/06/2021
+    And The event "Christchurch meetup" is located at latitude "-43.530955" and longitude "172.6366455"
+    And The event "Rangiora meetup" is located at latitude "-43.3036" and longitude "172.5963"
+    And The event "Wellington meetup" is located at latitude "-41.2887953" and longitude "174.7772114"
+    And The event "Auckland meetup" is located at latitude "-36.852095" and longitude "174.7631803"
+    And The event "London meetup" is located at latitude "51.5073219" and longitude "-0.1276474"
+    And The event "Rangiora meetup" is canceled
+    When I look for scheduled events within 500 km of latitude "-43.5" and longitude "172.6"
+    Then The events found are "Christchurch meetup,Wellington meetup"
+    When I look for the 3 nearest scheduled events to latitude "51.5" and longitude "0"
+    Then The events found are "London meetup,Auckland meetup,Wellington meetup"
+
+  Scenario: AC10 - Events located while the events are being indexed by location are found
+    Given There are 2000 scheduled events located around latitude "-43.5" and longitude "172.6"
+    When 50 more events are located at latitude "-41.2887953" and longitude "174.7772114" while the events are being indexed by location
+    Then There are 50 scheduled events within 1 km of latitude "-41.2887953" and longitude "174.7772114"
+
+  Scenario: AC11 - Lookups taking too long are given up and their requests are aborted
+    Given The external API answers too slowly
+    And Lookups are given up after 300 ms
+    When I add the location "Christchurch" to an event 1 time
+    Then The lookup has timed out 1 time
+    And The external API request has been aborted
+    And All added locations have name "Christchurch" and no coordinates
@@ -52,4 +52,76 @@ Feature: U4 - Notify participant of event status change
   Scenario: AC4 - If an event is “archived”, all participants are removed from that event.
     Given There is an event with name "SENG301 Asg 3" with status PAST, with a participant named "Bob Jones"
     When I update the status of event "SENG301 Asg 3" to ARCHIVED
-    Then All participants are removed from that event
\ No newline at end of file
+    Then All participants are removed from that event
+
+  Scenario: AC5 - When the calendar moves past scheduled events, only these events become past and their participants are notified
+    Given The calendar is on 01/09/2021
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    And There is an event with name "SENG301 Lab 2" on "14/09/2021" with a participant named "Bob Jones"
+    And There is an event with name "SENG301 Lab 3" on "21/09/2021" with a participant named "Carol White"
+    And The event with name "SENG301 Lab 2" is canceled
+    When The calendar moves to "15/09/2021" and the events are refreshed
+    Then 1 event is reported as moved to PAST
+    And The events with status PAST are "SENG301 Lab 1"
+    And The events with status SCHEDULED are "SENG301 Lab 3"
+    And The events with status CANCELED are "SENG301 Lab 2"
+    And Only "Alice Smith" is notified that "SENG301 Lab 1" has updated its status to PAST
+
+  Scenario: AC6 - When notifications are coalesced, each participant receives one digest of the status changes of the events they attend
+    Given The calendar is on 01/09/2021
+    And Notifications are coalesced in windows of 100 changes
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    And There is an event with name "SENG301 Lab 2" on "08/09/2021" with a participant named "Alice Smith"
+    And There is an event with name "SENG301 Lab 3" on "09/09/2021" with a participant named "Bob Jones"
+    When The calendar moves to "15/09/2021" and the events are refreshed
+    Then 3 events are reported as moved to PAST
+    And "Alice Smith" receives one digest of "SENG301 Lab 1,SENG301 Lab 2" updated to PAST
+    And Only "Bob Jones" is notified that "SENG301 Lab 3" has updated its status to PAST
+    And 3 status changes are delivered in 2 digests, a compression ratio of 1.5
+
+  Scenario: AC7 - When notifications go through the outbox, participants are notified once the status changes are relayed
+    Given The calendar is on 01/09/2021
+    And Notifications go through the outbox
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    And There is an event with name "SENG301 Lab 2" on "08/09/2021" with a participant named "Bob Jones"
+    When The events "SENG301 Lab 1,SENG301 Lab 2" are saved with status PAST
+    Then 2 notifications are pending in the outbox
+    And Nobody is notified
+    When The outbox is relayed
+    Then 2 notifications are relayed
+    And "Alice Smith" is notified 1 time that "SENG301 Lab 1" has updated its status to PAST
+    And "Bob Jones" is notified 1 time that "SENG301 Lab 2" has updated its status to PAST
+    And 0 notifications are pending in the outbox
+
+  Scenario: AC8 - When delivered notifications cannot be removed from the outbox, they are delivered again
+    Given The calendar is on 01/09/2021
+    And Notifications go through the outbox
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    When The events "SENG301 Lab 1" are saved with status PAST
+    And The outbox is relayed but the delivered notifications cannot be removed
+    Then 0 notifications are relayed
+    And 1 notifications are pending in the outbox
+    When The outbox is relayed
+    Then 1 notifications are relayed
+    And "Alice Smith" is notified 2 times that "SENG301 Lab 1" has updated its status to PAST
+    And 0 notifications are pending in the outbox
+
+  Scenario: AC9 - When the coalescer has been shut down, status changes are still delivered, one at a time
+    Given The calendar is on 01/09/2021
+    And Notifications are coalesced in windows of 100 changes
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    And There is an event with name "SENG301 Lab 2" on "08/09/2021" with a participant named "Alice Smith"
+    And The coalescer has been shut down
+    When The calendar moves to "15/09/2021" and the events are refreshed
+    Then 2 events are reported as moved to PAST
+    And "Alice Smith" is notified 1 time that "SENG301 Lab 1" has updated its status to PAST
+    And "Alice Smith" is notified 1 time that "SENG301 Lab 2" has updated its status to PAST
+    And 2 status changes are delivered in 2 digests, a compression ratio of 1.0
+
+  Scenario: AC10 - Participants observe an event once, however many times they are notified or attached
+    Given The calendar is on 01/09/2021
+    And There is an event with name "SENG301 Lab 1" on "07/09/2021" with a participant named "Alice Smith"
+    When "Alice Smith" observes the event "SENG301 Lab 1" again
+    And The participants of event "SENG301 Lab 1" are notified 3 times that it has moved to PAST
+    Then "Alice Smith" is notified 3 times that "SENG301 Lab 1" has updated its status to PAST
+    And The event "SENG301 Lab 1" is observed by 1 participant
@@ -48,6 +48,24 @@ Feature: U3 - Add participant to event
     When I add "" as a bad participant
     Then I expect an exception that disallows me to add this participant to the event
 
+  Scenario: AC4 - I can add several participants to an event at once, the ones that do not exist yet are created right away
+    Given The calendar is on 01/06/2021
+    And There is an event with name "SENG301 Asg 3" and an existing participant named "Bob Jones"
+    When I add the participants "Bob Jones,Lisa Smith,Tom Brown" to the event at once
+    Then The participants "Lisa Smith,Tom Brown" exist before the event is saved
+    And The participant "Bob Jones" added to the event is the existing one
+    When The event is saved
+    Then The event has the participants "Bob Jones,Lisa Smith,Tom Brown"
+
+  Scenario: AC5 - Participants already added to an event, or listed twice, are only added once
+    Given The calendar is on 01/06/2021
+    And There is an event with name "SENG301 Asg 3" and no participant named "Lisa Smith"
+    When I add the participants "Lisa Smith,Tom Brown" to the event at once
+    And I add the participants "Tom Brown,Lisa Smith,Ann Lee,Ann Lee" to the event at once
+    Then The event has 3 participants before it is saved
+    When The event is saved
+    Then The event has the participants "Ann Lee,Lisa Smith,Tom Brown"
+
 #  Scenario: AC3 - I cannot add participants with names containing numbers.
 #    Given There is an event with name "SENG301 Asg 3"
 #    When I add "1234" as a bad participant
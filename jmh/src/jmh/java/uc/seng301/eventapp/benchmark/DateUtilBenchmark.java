@@ -0,0 +1,103 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+
+package uc.seng301.eventapp.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uc.seng301.eventapp.util.DateUtil;
+
+/**
+ * Benchmarks of the {@link DateUtil} date parsing, from one and several
+ * threads (the parsing must not contend on the shared instance). No database
+ * is involved.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilBenchmark {
+
+  /**
+   * Dates to parse, in turn, by each thread (including single digit days and
+   * months, and an invalid date)
+   */
+  @State(Scope.Thread)
+  public static class Dates {
+    private static final String[] DATES = { "01/01/2021", "7/4/2021", "29/02/2024", "31/12/2030", "15/6/2022",
+        "30/02/2021", "10/10/2025", "1/11/2023" };
+    private int next = 0;
+
+    /**
+     * Get the next date to parse
+     *
+     * @return a DD/MM/YYYY formatted date (possibly invalid)
+     */
+    public String next() {
+      next = (next + 1) % DATES.length;
+      return DATES[next];
+    }
+  }
+
+  /**
+   * Parse a date from a single thread
+   *
+   * @param dates the dates to parse
+   * @return the parsed date (null if invalid)
+   */
+  @Benchmark
+  @Threads(1)
+  public Date convertToDate(Dates dates) {
+    return DateUtil.getInstance().convertToDate(dates.next());
+  }
+
+  /**
+   * Parse a date from four threads at once
+   *
+   * @param dates the dates to parse (one set per thread)
+   * @return the parsed date (null if invalid)
+   */
+  @Benchmark
+  @Threads(4)
+  public Date convertToDateConcurrently(Dates dates) {
+    return DateUtil.getInstance().convertToDate(dates.next());
+  }
+}
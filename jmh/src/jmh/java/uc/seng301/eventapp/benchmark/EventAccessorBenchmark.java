@@ -0,0 +1,94 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+
+package uc.seng301.eventapp.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.EventStatus;
+import uc.seng301.eventapp.model.Participant;
+
+/**
+ * Benchmarks of the {@link uc.seng301.eventapp.accessor.EventAccessor} hot
+ * paths (see {@link PersistenceState} for the database).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventAccessorBenchmark {
+
+  /**
+   * Persist a new event with one new and two existing participants (i.e. the
+   * database grows by one event per invocation)
+   *
+   * @param state the database
+   * @return the id of the persisted event
+   */
+  @Benchmark
+  public Long persistEventAndParticipants(PersistenceState state) {
+    Event event = state.newEvent(state.getEventDateValue());
+    event.addParticipant(new Participant(state.uniqueName("participant")));
+    event.addParticipant(new Participant(state.participantName(0)));
+    event.addParticipant(new Participant(state.participantName(state.datasetSize - 1)));
+    return state.getEventAccessor().persistEventAndParticipants(event);
+  }
+
+  /**
+   * Retrieve a random seeded event with its participants
+   *
+   * @param state the database
+   * @return the retrieved event
+   */
+  @Benchmark
+  public Event getEventAndParticipantsById(PersistenceState state) {
+    return state.getEventAccessor().getEventAndParticipantsById(state.randomEventId());
+  }
+
+  /**
+   * Retrieve all scheduled events (i.e. the whole dataset)
+   *
+   * @param state the database
+   * @return the scheduled events
+   */
+  @Benchmark
+  public List<Event> getAllEventsWithStatus(PersistenceState state) {
+    return state.getEventAccessor().getAllEventsWithStatus(EventStatus.SCHEDULED);
+  }
+}
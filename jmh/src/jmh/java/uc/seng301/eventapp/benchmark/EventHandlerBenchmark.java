@@ -0,0 +1,136 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+
+package uc.seng301.eventapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uc.seng301.eventapp.handler.StatusTransitionReport;
+import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.util.DateUtil;
+
+/**
+ * Benchmarks of the {@link uc.seng301.eventapp.handler.EventHandlerImpl} hot
+ * paths (see {@link PersistenceState} for the database).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventHandlerBenchmark {
+
+  /**
+   * Number of events that are due when {@link #refreshEvents} is called
+   */
+  public static final int DUE_EVENTS = 50;
+
+  /**
+   * Events to move to past on next refresh, scheduled (and persisted) before
+   * each invocation of {@link EventHandlerBenchmark#refreshEvents}
+   */
+  @State(Scope.Thread)
+  public static class DueEvents {
+
+    /**
+     * Persist {@link #DUE_EVENTS} events dated from yesterday (not measured)
+     *
+     * @param state the database
+     */
+    @Setup(Level.Invocation)
+    public void schedule(PersistenceState state) {
+      Date yesterday = new Date(DateUtil.getInstance().getCurrentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+      List<Event> events = new ArrayList<>(DUE_EVENTS);
+      for (int i = 0; i < DUE_EVENTS; i++) {
+        Event event = state.newEvent(yesterday);
+        event.addParticipant(new Participant(state.participantName(i % state.datasetSize)));
+        events.add(event);
+      }
+      state.getEventAccessor().persistEvents(events);
+    }
+  }
+
+  /**
+   * Create (and validate) a new event, without persisting it
+   *
+   * @param state the database (the event type is retrieved from it)
+   * @return the created event
+   */
+  @Benchmark
+  public Event createEvent(PersistenceState state) {
+    return state.getEventHandler().createEvent(state.uniqueName("event"), "benchmark event", state.getEventDate(),
+        PersistenceState.EVENT_TYPE);
+  }
+
+  /**
+   * Add two existing and one new participants to a new event (the new
+   * participant is persisted)
+   *
+   * @param state the database
+   * @return the event with its participants
+   */
+  @Benchmark
+  public Event addParticipants(PersistenceState state) {
+    Event event = state.newEvent(state.getEventDateValue());
+    state.getEventHandler().addParticipants(event,
+        Arrays.asList(new Participant(state.participantName(0)),
+            new Participant(state.participantName(state.datasetSize - 1)),
+            new Participant(state.uniqueName("participant"))));
+    return event;
+  }
+
+  /**
+   * Move {@link #DUE_EVENTS} due events to past (among the whole dataset of
+   * scheduled events) and notify their participants
+   *
+   * @param state     the database
+   * @param dueEvents the events to move (scheduled before each invocation)
+   * @return the report of the refresh
+   */
+  @Benchmark
+  public StatusTransitionReport refreshEvents(PersistenceState state, DueEvents dueEvents) {
+    return state.getEventHandler().refreshEvents();
+  }
+}
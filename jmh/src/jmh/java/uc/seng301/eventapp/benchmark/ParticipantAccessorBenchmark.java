@@ -0,0 +1,78 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+
+package uc.seng301.eventapp.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uc.seng301.eventapp.model.Participant;
+
+/**
+ * Benchmarks of the {@link uc.seng301.eventapp.accessor.ParticipantAccessor}
+ * hot paths (see {@link PersistenceState} for the database).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticipantAccessorBenchmark {
+
+  /**
+   * Persist a new participant (i.e. a name lookup then an insert)
+   *
+   * @param state the database
+   * @return the id of the persisted participant
+   */
+  @Benchmark
+  public Long persistNewParticipant(PersistenceState state) {
+    return state.getParticipantAccessor().persistParticipant(new Participant(state.uniqueName("participant")));
+  }
+
+  /**
+   * Persist a random seeded participant (i.e. a name lookup only, the
+   * participant already exists)
+   *
+   * @param state the database
+   * @return the id of the existing participant
+   */
+  @Benchmark
+  public Long persistExistingParticipant(PersistenceState state) {
+    return state.getParticipantAccessor().persistParticipant(new Participant(
+        state.participantName(ThreadLocalRandom.current().nextInt(state.datasetSize))));
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Created on Wed Apr 07 2021
+ *
+ * The Unlicense
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or distribute
+ * this software, either in source code form or as a compiled binary, for any
+ * purpose, commercial or non-commercial, and by any means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors of this
+ * software dedicate any and all copyright interest in the software to the public
+ * domain. We make this dedication for the benefit of the public at large and to
+ * the detriment of our heirs and successors. We intend this dedication to be an
+ * overt act of relinquishment in perpetuity of all present and future rights to
+ * this software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+
+
+package uc.seng301.eventapp.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import uc.seng301.eventapp.accessor.EventAccessor;
+import uc.seng301.eventapp.accessor.ParticipantAccessor;
+import uc.seng301.eventapp.handler.EventHandler;
+import uc.seng301.eventapp.handler.EventHandlerImpl;
+import uc.seng301.eventapp.model.Event;
+import uc.seng301.eventapp.model.EventType;
+import uc.seng301.eventapp.model.Participant;
+import uc.seng301.eventapp.model.ScheduledEvent;
+
+/**
+ * Database shared by all threads of a benchmark run: a fresh schema is created
+ * (as in the app, see hibernate.cfg.xml) in either an in-memory H2 database or
+ * a SQLite database file, then filled with {@link #datasetSize} scheduled
+ * events having {@link #PARTICIPANTS_PER_EVENT} participants each (out of
+ * {@link #datasetSize} participants).
+ *
+ * Both parameters can be overridden from the command line, see jmh/build.gradle.
+ */
+@State(Scope.Benchmark)
+public class PersistenceState {
+
+  /**
+   * Type of all created events
+   */
+  public static final String EVENT_TYPE = "benchmark";
+
+  /**
+   * Number of participants of each seeded event
+   */
+  public static final int PARTICIPANTS_PER_EVENT = 3;
+
+  /**
+   * Number of events persisted at once while seeding the database
+   */
+  private static final int SEED_BATCH_SIZE = 500;
+
+  /**
+   * Database to run against: "h2" (in memory) or "sqlite" (temporary file)
+   */
+  @Param({ "h2", "sqlite" })
+  public String database;
+
+  /**
+   * Number of events (and participants) in the database before the benchmark
+   * starts
+   */
+  @Param({ "1000", "10000" })
+  public int datasetSize;
+
+  private SessionFactory sessionFactory;
+  private Path databaseFile;
+  private ParticipantAccessor participantAccessor;
+  private EventAccessor eventAccessor;
+  private EventHandler eventHandler;
+  private EventType eventType;
+  private final List<Long> eventIds = new ArrayList<>();
+  private final AtomicLong nameSequence = new AtomicLong();
+  private String eventDate;
+  private Date eventDateValue;
+
+  /**
+   * Create the schema and seed the database
+   *
+   * @throws IOException if the SQLite database file cannot be created
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Configuration configuration = new Configuration();
+    configuration.configure();
+    switch (database) {
+      case "h2":
+        // the sqlite pragmas are passed to h2 too, where cache_size is in KB (other
+        // pragmas are ignored), i.e. same 16MB page cache
+        configuration.setProperty("hibernate.hikari.dataSource.cache_size", "16000");
+        configuration.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        configuration.setProperty("hibernate.connection.url",
+            "jdbc:h2:mem:eventapp-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        break;
+      case "sqlite":
+        databaseFile = Files.createTempFile("eventapp-benchmark-", ".sqlite");
+        configuration.setProperty("hibernate.connection.url", "jdbc:sqlite:" + databaseFile);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown database '" + database + "', expected h2 or sqlite");
+    }
+    sessionFactory = configuration.buildSessionFactory();
+
+    participantAccessor = new ParticipantAccessor(sessionFactory);
+    eventAccessor = new EventAccessor(sessionFactory, participantAccessor);
+    eventHandler = new EventHandlerImpl(eventAccessor, participantAccessor);
+    eventType = eventAccessor.getEventTypeFromName(EVENT_TYPE);
+
+    // all events take place in a month (i.e. are valid for the event handler)
+    LocalDate date = LocalDate.now().plusMonths(1);
+    eventDate = date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+    eventDateValue = Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+
+    List<Event> batch = new ArrayList<>(SEED_BATCH_SIZE);
+    for (int i = 0; i < datasetSize; i++) {
+      Event event = newEvent(eventDateValue);
+      for (int j = 0; j < PARTICIPANTS_PER_EVENT; j++) {
+        event.addParticipant(new Participant(participantName((i + j) % datasetSize)));
+      }
+      batch.add(event);
+      if (batch.size() == SEED_BATCH_SIZE || i == datasetSize - 1) {
+        List<Long> ids = eventAccessor.persistEvents(batch);
+        if (ids.size() != batch.size()) {
+          throw new IllegalStateException("unable to seed the " + database + " database, see log for details");
+        }
+        eventIds.addAll(ids);
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Close the session factory and delete the SQLite database file (if any)
+   *
+   * @throws IOException if the database file cannot be deleted
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    sessionFactory.close();
+    if (null != databaseFile) {
+      for (String suffix : new String[] { "", "-wal", "-shm" }) {
+        Files.deleteIfExists(Paths.get(databaseFile + suffix));
+      }
+    }
+  }
+
+  /**
+   * Create a new (transient) scheduled event with a unique name
+   *
+   * @param date the date of the event
+   * @return a new event without participants
+   */
+  public Event newEvent(Date date) {
+    return new ScheduledEvent(uniqueName("event"), "benchmark event", date, eventType, 0.0, null);
+  }
+
+  /**
+   * Get a name that has not been used by any other event or participant
+   *
+   * @param prefix the prefix of the name
+   * @return a unique name
+   */
+  public String uniqueName(String prefix) {
+    return prefix + "-" + nameSequence.incrementAndGet();
+  }
+
+  /**
+   * Get the name of a seeded participant
+   *
+   * @param index the index of the participant (between 0 and datasetSize)
+   * @return the name of that participant
+   */
+  public String participantName(int index) {
+    return "participant-" + index;
+  }
+
+  /**
+   * Get the id of a seeded event, picked at random
+   *
+   * @return the id of an existing event
+   */
+  public Long randomEventId() {
+    return eventIds.get(ThreadLocalRandom.current().nextInt(eventIds.size()));
+  }
+
+  /**
+   * Get the date of the created events, formatted as expected by the event
+   * handler
+   *
+   * @return a DD/MM/YYYY date in a month
+   */
+  public String getEventDate() {
+    return eventDate;
+  }
+
+  /**
+   * Get the date of the created events
+   *
+   * @return a date in a month
+   */
+  public Date getEventDateValue() {
+    return eventDateValue;
+  }
+
+  /**
+   * Get the participant accessor bound to this database
+   *
+   * @return a participant accessor
+   */
+  public ParticipantAccessor getParticipantAccessor() {
+    return participantAccessor;
+  }
+
+  /**
+   * Get the event accessor bound to this database
+   *
+   * @return an event accessor
+   */
+  public EventAccessor getEventAccessor() {
+    return eventAccessor;
+  }
+
+  /**
+   * Get the event handler bound to this database
+   *
+   * @return an event handler (with a participant accessor)
+   */
+  public EventHandler getEventHandler() {
+    return eventHandler;
+  }
+}